@@ -0,0 +1,230 @@
+package engine.java.socket;
+
+import engine.java.socket.SocketConnector.SendHandle;
+import engine.java.socket.SocketConnector.SocketData;
+
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 发送队列压力测试<p>
+ * 多个生产者并发入队并随机取消，单个消费者按发送线程的方式取出，检查每个数据包恰好发送一次（已取消的不发送），
+ * 并与原实现（LinkedList，为能得到正确结果加了锁，取消为O(n)遍历）比较吞吐量<br>
+ * 运行：javac -d bin -cp bin bench/engine/java/socket/SocketSendQueueStress.java
+ * && java -cp bin engine.java.socket.SocketSendQueueStress [生产者数] [每个生产者的数据包数]
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public class SocketSendQueueStress {
+
+    private static final int CANCEL_EVERY = 7;              // 每隔几个数据包取消一个
+
+    private static final class Frame implements SocketData {
+
+        final int id;
+
+        Frame(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void wrapData(OutputStream out) {}
+    }
+
+    /**
+     * 被测队列
+     */
+    private interface Queue {
+
+        String name();
+
+        /**
+         * @return 取消句柄
+         */
+        Object offer(Frame frame);
+
+        /**
+         * @return 是否取消成功（未发送）
+         */
+        boolean cancel(Object handle, Frame frame);
+
+        /**
+         * 消费者取出下一个数据包并标记为已发送
+         *
+         * @return 队列为空时返回null
+         */
+        Frame poll();
+    }
+
+    private static final class MpscQueue implements Queue {
+
+        private final SocketSendQueue queue = new SocketSendQueue(8, 4, 1);
+
+        @Override
+        public String name() {
+            return "SocketSendQueue";
+        }
+
+        @Override
+        public Object offer(Frame frame) {
+            SocketSendQueue.Node node = new SocketSendQueue.Node(queue, frame,
+                    frame.id % queue.lanes(), 0);
+            queue.offer(node);
+            return node;
+        }
+
+        @Override
+        public boolean cancel(Object handle, Frame frame) {
+            return ((SendHandle) handle).cancel();
+        }
+
+        @Override
+        public Frame poll() {
+            SocketSendQueue.Node node = queue.claim();
+            if (node == null)
+            {
+                return null;
+            }
+
+            Frame frame = (Frame) node.getData();
+            queue.commit(node);
+            return frame;
+        }
+    }
+
+    /**
+     * 原实现：生产者add，发送线程peek发送后poll，取消为remove
+     */
+    private static final class LinkedListQueue implements Queue {
+
+        private final LinkedList<Frame> list = new LinkedList<Frame>();
+
+        @Override
+        public String name() {
+            return "LinkedList (locked)";
+        }
+
+        @Override
+        public Object offer(Frame frame) {
+            synchronized (list) {
+                list.add(frame);
+            }
+
+            return frame;
+        }
+
+        @Override
+        public boolean cancel(Object handle, Frame frame) {
+            synchronized (list) {
+                return list.remove(frame);
+            }
+        }
+
+        @Override
+        public Frame poll() {
+            synchronized (list) {
+                return list.poll();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        System.out.println(producers + " producers x " + frames + " frames, 1/" + CANCEL_EVERY + " cancelled");
+        for (int round = 0; round < 3; round++)
+        {
+            run(new MpscQueue(), producers, frames);
+            // 原实现取消需要遍历队列，减少数据量
+            run(new LinkedListQueue(), producers, frames / 10);
+        }
+    }
+
+    private static void run(final Queue queue, int producers, final int frames) throws Exception {
+        final int total = producers * frames;
+        final AtomicIntegerArray sent = new AtomicIntegerArray(total);
+        final boolean[] cancelled = new boolean[total];
+        final AtomicLong cancelCount = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(producers);
+
+        for (int p = 0; p < producers; p++)
+        {
+            final int base = p * frames;
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = 0; i < frames; i++)
+                    {
+                        Frame frame = new Frame(base + i);
+                        Object handle = queue.offer(frame);
+                        if (i % CANCEL_EVERY == 0 && queue.cancel(handle, frame))
+                        {
+                            // 每个下标只由一个生产者写入，done计数归零后对消费者可见
+                            cancelled[frame.id] = true;
+                            cancelCount.incrementAndGet();
+                        }
+                    }
+
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        long consumed = 0;
+        while (true)
+        {
+            // 先检查生产者是否已结束，再取数据，避免漏掉最后入队的数据包
+            boolean isFinished = done.getCount() == 0;
+            Frame frame = queue.poll();
+            if (frame == null)
+            {
+                if (isFinished) break;
+                continue;
+            }
+
+            sent.incrementAndGet(frame.id);
+            consumed++;
+        }
+
+        long nanos = System.nanoTime() - startNanos;
+        int lost = 0, duplicated = 0, cancelledSent = 0;
+        for (int i = 0; i < total; i++)
+        {
+            int n = sent.get(i);
+            if (cancelled[i])
+            {
+                if (n != 0) cancelledSent++;
+            }
+            else if (n == 0)
+            {
+                lost++;
+            }
+            else if (n > 1)
+            {
+                duplicated++;
+            }
+        }
+
+        System.out.printf("%-20s %,12d frames/s  sent %d, cancelled %d, lost %d, duplicated %d, cancelled but sent %d%n",
+                queue.name(), total * 1000000000L / Math.max(1, nanos),
+                consumed, cancelCount.get(), lost, duplicated, cancelledSent);
+        if (lost != 0 || duplicated != 0 || cancelledSent != 0 || consumed + cancelCount.get() != total)
+        {
+            throw new AssertionError(queue.name() + ": frames not accounted for exactly once");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package engine.java.socket.util;
+
+import engine.java.util.secure.Obfuscate;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 数据密钥异或性能测试<p>
+ * 先检查{@link SocketUtil.Crypto}与原实现（逐字节异或）结果一致，再比较处理64KB数据包的耗时<br>
+ * 运行：javac -d bin -cp bin bench/engine/java/socket/util/SocketCryptoBenchmark.java
+ * && java -cp bin engine.java.socket.util.SocketCryptoBenchmark
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public class SocketCryptoBenchmark {
+
+    private static final int FRAME_SIZE = 64 * 1024;
+
+    private static final int ITERATIONS = 20000;
+
+    /**
+     * 原实现
+     */
+    private static void crypt(byte[] key, byte[] data) {
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) (data[i] ^ key[i % key.length]);
+        }
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(3);
+        verify(random);
+
+        byte[] key = new byte[16];
+        random.nextBytes(key);
+        byte[] handshake = Obfuscate.obfuscate(key);
+        key = Obfuscate.clarify(handshake);
+        SocketUtil.Crypto crypto = new SocketUtil.Crypto(handshake);
+
+        byte[] frame = new byte[FRAME_SIZE];
+        ByteBuffer direct = ByteBuffer.allocateDirect(FRAME_SIZE);
+        for (int round = 0; round < 3; round++)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) crypt(key, frame);
+            long old = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) crypto.crypt(frame);
+            long heap = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) crypto.crypt(direct);
+            long off = System.nanoTime() - start;
+
+            System.out.printf("64KB frame: old %.1fus, heap %.1fus, direct %.1fus, speedup %.1fx%n",
+                    old / 1e3 / ITERATIONS, heap / 1e3 / ITERATIONS, off / 1e3 / ITERATIONS,
+                    (double) old / heap);
+        }
+    }
+
+    /**
+     * 不同密钥长度、数据长度及缓冲区类型下结果都与原实现一致
+     */
+    private static void verify(Random random) {
+        for (int keyLength : new int[] { 1, 5, 13, 16, 24 })
+        {
+            byte[] key = new byte[keyLength];
+            random.nextBytes(key);
+            byte[] handshake = Obfuscate.obfuscate(key);
+            key = Obfuscate.clarify(handshake);
+            SocketUtil.Crypto crypto = new SocketUtil.Crypto(handshake);
+            for (int length : new int[] { 0, 1, 7, 8, 9, 63, 65, 1000, FRAME_SIZE })
+            {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+                byte[] expected = data.clone();
+                crypt(key, expected);
+
+                byte[] heap = data.clone();
+                crypto.crypt(heap);
+                if (!Arrays.equals(heap, expected))
+                {
+                    throw new AssertionError("heap mismatch: key " + keyLength + ", length " + length);
+                }
+
+                // 非零起始位置的直接内存
+                ByteBuffer direct = ByteBuffer.allocateDirect(length + 10);
+                direct.position(3);
+                direct.put(data).flip().position(3);
+                crypto.crypt(direct);
+                byte[] actual = new byte[length];
+                direct.get(actual);
+                if (!Arrays.equals(actual, expected))
+                {
+                    throw new AssertionError("direct mismatch: key " + keyLength + ", length " + length);
+                }
+            }
+        }
+
+        System.out.println("verified against the byte-by-byte implementation");
+    }
+}
@@ -4,6 +4,7 @@ import engine.java.http.HttpRequest.HttpEntity;
 import engine.java.util.common.LogFactory;
 import engine.java.util.common.LogFactory.LOG;
 import engine.java.util.common.TextUtils;
+import engine.java.util.extra.MyThreadFactory;
 
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
@@ -12,6 +13,12 @@ import java.net.Proxy.Type;
 import java.net.URL;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -39,6 +46,8 @@ public class HttpConnector {
     
     private final ReentrantLock lock = new ReentrantLock();        // 连接操作锁
 
+    private final ReentrantLock connectLock = new ReentrantLock(); // 同一时间只允许一个请求（不占用虚拟线程的载体线程）
+
     private HttpParams params;                                     // 连接参数
 
     private java.net.Proxy proxy;                                  // 连接代理
@@ -149,33 +158,103 @@ public class HttpConnector {
     /**
      * 连接网络
      */
-    public synchronized HttpResponse connect() throws Exception {
-        isConnected.set(false);
-        if (isCancelled())
-        {
+    public HttpResponse connect() throws Exception {
+        connectLock.lock();
+        try {
+            isConnected.set(false);
+            if (isCancelled())
+            {
+                return null;
+            }
+            
+            long time = System.currentTimeMillis();
+            try {
+                HttpResponse response = doConnect(request);
+                if (!isCancelled())
+                {
+                    log(String.format("服务器响应时间--%dms", System.currentTimeMillis() - time));
+                    return response;
+                }
+            } catch (Exception e) {
+                if (!isCancelled())
+                {
+                    log(e);
+                    throw e;
+                }
+            } finally {
+                isConnected.set(true);
+                close();
+            }
+
             return null;
+        } finally {
+            connectLock.unlock();
         }
-        
-        long time = System.currentTimeMillis();
-        try {
-            HttpResponse response = doConnect(request);
-            if (!isCancelled())
+    }
+
+    /**
+     * 在后台线程中连接网络（{@link #setVirtualThreads(boolean)}开启后每个请求使用一个虚拟线程）
+     * 
+     * @return 取消任务时同时取消网络连接
+     */
+    public Future<HttpResponse> connectAsync() {
+        FutureTask<HttpResponse> task = new FutureTask<HttpResponse>(new Callable<HttpResponse>() {
+
+            @Override
+            public HttpResponse call() throws Exception {
+                return connect();
+            }
+        }) {
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) HttpConnector.this.cancel();
+                return cancelled;
+            }
+        };
+
+        getExecutor().execute(task);
+        return task;
+    }
+
+    private static volatile boolean useVirtualThreads;
+
+    private static Executor executor;
+
+    /**
+     * {@link #connectAsync()}使用虚拟线程（Java 21+，不支持时仍使用线程池）
+     */
+    public static synchronized void setVirtualThreads(boolean enable) {
+        if (useVirtualThreads != enable)
+        {
+            useVirtualThreads = enable;
+            executor = null;
+        }
+    }
+
+    private static synchronized Executor getExecutor() {
+        if (executor == null)
+        {
+            if (useVirtualThreads && MyThreadFactory.isVirtualThreadSupported())
             {
-                log(String.format("服务器响应时间--%dms", System.currentTimeMillis() - time));
-                return response;
+                // 虚拟线程不需要复用
+                final ThreadFactory factory = MyThreadFactory.newVirtualThreadFactory("Http网络连接");
+                executor = new Executor() {
+
+                    @Override
+                    public void execute(Runnable command) {
+                        factory.newThread(command).start();
+                    }
+                };
             }
-        } catch (Exception e) {
-            if (!isCancelled())
+            else
             {
-                log(e);
-                throw e;
+                executor = Executors.newCachedThreadPool(new MyThreadFactory("Http网络连接"));
             }
-        } finally {
-            isConnected.set(true);
-            close();
         }
 
-        return null;
+        return executor;
     }
     
     protected HttpResponse doConnect(HttpRequest request) throws Exception {
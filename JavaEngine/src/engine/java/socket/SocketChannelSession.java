@@ -0,0 +1,287 @@
+package engine.java.socket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 多路复用模式下的单个Socket连接（所有方法均在事件循环线程中执行）
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class SocketChannelSession implements SocketEventLoop.ChannelHandler {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final SocketConnector connector;
+
+    private final SocketChannel channel;
+
+    private final SocketEventLoop loop;
+
+    private SelectionKey key;
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final BufferInputStream in = new BufferInputStream();
+
+    private final SocketSendBatch batch = new SocketSendBatch();
+
+    private boolean isWriting;                          // 批量数据未写完
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private volatile boolean isClosed;
+
+    private final Runnable flushTask = new Runnable() {
+
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    public SocketChannelSession(SocketConnector connector, SocketChannel channel, SocketEventLoop loop) {
+        this.connector = connector;
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    /**
+     * 注册到事件循环（通道必须已设置为非阻塞模式）
+     */
+    public void start() {
+        loop.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (isClosed) return;
+                try {
+                    key = channel.register(loop.selector(), SelectionKey.OP_READ, SocketChannelSession.this);
+                    flush();
+                } catch (IOException e) {
+                    onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 有数据待发送时调用（任意线程）
+     */
+    public void requestFlush() {
+        if (!isClosed && flushScheduled.compareAndSet(false, true))
+        {
+            loop.execute(flushTask);
+        }
+    }
+
+    public void close() {
+        isClosed = true;
+        loop.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                releaseBatch();
+                if (key != null) key.cancel();
+            }
+        });
+    }
+
+    @Override
+    public void onSelected(SelectionKey key) {
+        if (key.isReadable())
+        {
+            read();
+        }
+
+        if (key.isValid() && key.isWritable())
+        {
+            flush();
+        }
+    }
+
+    private void read() {
+        try {
+            int n;
+            while ((n = channel.read(readBuffer)) > 0)
+            {
+                parse();
+                if (isClosed) return;
+            }
+
+            if (n < 0)
+            {
+                throw new EOFException("连接已断开");
+            }
+        } catch (Exception e) {
+            onError(e);
+        }
+    }
+
+    private void parse() throws IOException {
+        readBuffer.flip();
+        in.buffer = readBuffer;
+        while (readBuffer.hasRemaining() && !isClosed)
+        {
+            int position = readBuffer.position();
+            Object data;
+            try {
+                data = connector.parseData(in);
+            } catch (BufferUnderflow e) {
+                // 数据包不完整，等待后续数据
+                readBuffer.position(position);
+                break;
+            }
+
+            connector.onReceiveData(data);
+        }
+
+        readBuffer.compact();
+        if (!readBuffer.hasRemaining())
+        {
+            // 单个数据包超过缓冲区大小
+            ByteBuffer buffer = ByteBuffer.allocate(readBuffer.capacity() * 2);
+            readBuffer.flip();
+            buffer.put(readBuffer);
+            readBuffer = buffer;
+        }
+        else if (readBuffer.capacity() > BUFFER_SIZE && readBuffer.position() <= BUFFER_SIZE / 2)
+        {
+            // 大数据包解析完后恢复缓冲区大小，避免连接一直占用扩容后的内存
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            readBuffer.flip();
+            buffer.put(readBuffer);
+            readBuffer = buffer;
+        }
+    }
+
+    private void flush() {
+        if (isClosed || key == null || !key.isValid()) return;
+        try {
+            if (isWriting && !write())
+            {
+                return;
+            }
+
+            SocketSendQueue.Node node;
+            while ((node = connector.claimData()) != null)
+            {
+                isWriting = true;
+                connector.fillBatch(batch, node);
+                batch.buffer.flip();
+                if (!write())
+                {
+                    return;
+                }
+            }
+
+            interestWrite(false);
+        } catch (Exception e) {
+            onError(e);
+        }
+    }
+
+    /**
+     * 归还未写完的批量数据，由下一个连接重发（否则这些数据一直处于发送中，所在通道无法再发送）
+     */
+    private void releaseBatch() {
+        if (isWriting)
+        {
+            isWriting = false;
+            connector.releaseBatch(batch);
+        }
+    }
+
+    /**
+     * 聚集写入通道
+     * 
+     * @return 是否全部写完
+     */
+    private boolean write() throws IOException {
+        if (!batch.buffer.writeTo(channel))
+        {
+            interestWrite(true);
+            return false;
+        }
+
+        isWriting = false;
+        connector.commitBatch(batch, this);
+        return true;
+    }
+
+    private void interestWrite(boolean enable) {
+        int ops = key.interestOps();
+        int newOps = enable ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+        if (newOps != ops) key.interestOps(newOps);
+    }
+
+    private void onError(Exception e) {
+        releaseBatch();
+        if (isClosed) return;
+        // 停止收发，由调用方决定是否关闭连接
+        isClosed = true;
+        if (key != null) key.cancel();
+        connector.onTransportError(e);
+    }
+
+    /**
+     * 数据不足时抛出，解析器需从头重新解析
+     */
+    private static final class BufferUnderflow extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        static final BufferUnderflow INSTANCE = new BufferUnderflow();
+
+        private BufferUnderflow() {
+            super("Buffer underflow");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * 多路复用模式下传给{@link SocketConnector.SocketReceiver#parseData(InputStream)}的输入流
+     */
+    static final class BufferInputStream extends InputStream {
+
+        ByteBuffer buffer;
+
+        /**
+         * 检查剩余数据是否足够，不足时抛出{@link BufferUnderflow}（解析器可在分配内存前调用）
+         */
+        void require(int length) throws IOException {
+            if (buffer.remaining() < length) throw BufferUnderflow.INSTANCE;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining()) throw BufferUnderflow.INSTANCE;
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) throw BufferUnderflow.INSTANCE;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,262 @@
+package engine.java.socket;
+
+import engine.java.socket.SocketConnector.SendHandle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+/**
+ * 大数据分片发送<p>
+ * 将分片数据源（如protocol.util.ProtocolChunkWriter）接入{@link SocketConnector}的发送队列：
+ * 每次只有一个分片在低优先级通道中排队，写出后才编码下一个分片，
+ * 期间的聊天消息按优先级插队，大数据不会阻塞普通消息，也不会占满发送队列<br>
+ * 多路复用模式下后续分片在连接线程池中编码，不占用事件循环线程；阻塞模式下在发送线程中编码<br>
+ * 分片不参与重传，接收方断线后会丢弃未完成的分片流，因此连接断开后发送失败（{@link #getError()}），
+ * 需要时重新发送整个数据
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class SocketChunkSender {
+
+    /**
+     * 分片数据源
+     */
+    public interface ChunkSource {
+
+        boolean hasNext();
+
+        /**
+         * 读取并编码下一个分片（如ProtocolChunkWriter.next(false)）
+         */
+        ByteBuffer next() throws Exception;
+
+        /**
+         * 分片写出或取消后归还缓冲区（如ProtocolWrapper.recycle(buffer)）
+         */
+        void recycle(ByteBuffer buffer);
+    }
+
+    private final SocketConnector connector;
+
+    private final ChunkSource source;
+
+    private Chunk current;                              // 排队中的分片
+
+    private int sent;                                   // 已写出的分片数
+
+    private boolean isStarted;
+
+    private boolean isFinished;
+
+    private boolean isCancelled;
+
+    private Exception error;                            // 编码分片失败或连接断开的异常
+
+    private Object connection;                          // 写出第一个分片的连接
+
+    public SocketChunkSender(SocketConnector connector, ChunkSource source) {
+        this.connector = connector;
+        this.source = source;
+    }
+
+    /**
+     * 编码第一个分片并按发送队列的容量策略入队（之后的分片自动发送）
+     *
+     * @return 第一个分片被拒绝（发送队列已满）时返回false
+     */
+    public synchronized boolean start() throws Exception {
+        if (isStarted)
+        {
+            throw new IllegalStateException("Already started");
+        }
+
+        isStarted = true;
+        if (!source.hasNext())
+        {
+            isFinished = true;
+            return true;
+        }
+
+        Chunk chunk = new Chunk(source.next());
+        chunk.handle = connector.send(chunk, SocketConnector.PRIORITY_LOW);
+        if (chunk.handle.isCancelled())
+        {
+            isCancelled = true;
+            source.recycle(chunk.buffer);
+            return false;
+        }
+
+        current = chunk;
+        return true;
+    }
+
+    /**
+     * 分片写出（发送线程或事件循环线程调用），编码下一个分片
+     *
+     * @param connection 写出分片的连接
+     */
+    private void onSent(Chunk chunk, Object connection) {
+        synchronized (this) {
+            source.recycle(chunk.buffer);
+            current = null;
+            if (this.connection == null)
+            {
+                this.connection = connection;
+            }
+            else if (this.connection != connection)
+            {
+                // 断线重连后接收方已丢弃该分片流，剩余分片无法续传
+                error = new SocketException("连接已断开，分片发送中止");
+                return;
+            }
+
+            sent++;
+            if (isCancelled || error != null)
+            {
+                return;
+            }
+
+            if (!source.hasNext())
+            {
+                isFinished = true;
+                return;
+            }
+        }
+
+        if (connection instanceof SocketChannelSession)
+        {
+            connector.executeBlocking(new Runnable() {
+
+                @Override
+                public void run() {
+                    sendNext();
+                }
+            });
+        }
+        else
+        {
+            sendNext();
+        }
+    }
+
+    /**
+     * 编码并发送下一个分片（同一时间只有一个分片在编码或排队，数据源不会被并发访问）
+     */
+    private void sendNext() {
+        Chunk next;
+        try {
+            next = new Chunk(source.next());
+        } catch (Exception e) {
+            synchronized (this) {
+                error = e;
+            }
+
+            return;
+        }
+
+        synchronized (this) {
+            if (isCancelled)
+            {
+                source.recycle(next.buffer);
+                return;
+            }
+
+            // 阻塞模式下在发送线程中调用，不能等待自己腾出空间
+            next.handle = connector.sendUnbounded(next, SocketConnector.PRIORITY_LOW);
+            current = next;
+        }
+    }
+
+    /**
+     * 取消发送（正在写出的分片仍会发出）
+     */
+    public void cancel() {
+        Chunk chunk;
+        synchronized (this) {
+            if (isFinished || isCancelled) return;
+            isCancelled = true;
+            chunk = current;
+            current = null;
+        }
+
+        if (chunk != null && chunk.handle.cancel())
+        {
+            source.recycle(chunk.buffer);
+        }
+    }
+
+    /**
+     * 所有分片已写出
+     */
+    public synchronized boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * 已取消或失败（包括分片在发送队列中被丢弃或清除）
+     */
+    public synchronized boolean isCancelled() {
+        return isCancelled || error != null || (current != null && current.handle.isCancelled());
+    }
+
+    /**
+     * 编码分片失败的异常
+     */
+    public synchronized Exception getError() {
+        return error;
+    }
+
+    /**
+     * 已写出的分片数
+     */
+    public synchronized int getSentChunks() {
+        return sent;
+    }
+
+    /**
+     * 一个分片，写出后由{@link SocketConnector}回调
+     */
+    final class Chunk implements SocketConnector.SizedData, SocketConnector.PrioritizedData {
+
+        final ByteBuffer buffer;
+
+        SendHandle handle;
+
+        Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int length() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public int priority() {
+            return SocketConnector.PRIORITY_LOW;
+        }
+
+        @Override
+        public void wrapData(OutputStream out) throws IOException {
+            // 写出失败时会重发，不能改变缓冲区位置
+            ByteBuffer buffer = this.buffer.duplicate();
+            if (buffer.hasArray())
+            {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            else
+            {
+                byte[] bs = new byte[buffer.remaining()];
+                buffer.get(bs);
+                out.write(bs);
+            }
+        }
+
+        void onSent(Object connection) {
+            SocketChunkSender.this.onSent(this, connection);
+        }
+    }
+}
@@ -56,4 +56,37 @@ public interface SocketConnectionListener {
      * 连接已断开
      */
     void onClosed();
+
+    /**
+     * 发送队列水位监听（监听器可选实现此接口，生产者据此自行限流）
+     */
+    interface QueueWatermarkListener {
+
+        /**
+         * 发送队列达到高水位，生产者应暂停发送
+         * 
+         * @param depth 排队的数据包数
+         * @param bytes 排队的字节数
+         */
+        void onHighWatermark(int depth, long bytes);
+
+        /**
+         * 发送队列回落到低水位，生产者可恢复发送
+         */
+        void onLowWatermark(int depth, long bytes);
+    }
+
+    /**
+     * 自动重连监听（监听器可选实现此接口）
+     */
+    interface ReconnectListener {
+
+        /**
+         * 连接已断开，即将重连
+         * 
+         * @param attempt 连续重连次数
+         * @param delayMillis 距离下次重连的时间
+         */
+        void onReconnect(int attempt, long delayMillis);
+    }
 }
\ No newline at end of file
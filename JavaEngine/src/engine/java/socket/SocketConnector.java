@@ -1,7 +1,11 @@
 package engine.java.socket;
 
 import engine.java.socket.util.SocketUtil;
+import engine.java.util.extra.HashedWheelTimer;
+import engine.java.util.extra.IntHashMap;
+import engine.java.util.extra.MyThreadFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -9,11 +13,15 @@ import java.net.InetSocketAddress;
 import java.net.Proxy.Type;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.LinkedList;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -25,26 +33,104 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class SocketConnector {
 
+    /** 高优先级（应答、心跳等延迟敏感数据） **/
+    public static final int PRIORITY_HIGH               = 0;
+
+    /** 普通优先级 **/
+    public static final int PRIORITY_NORMAL             = 1;
+
+    /** 低优先级（批量上传等大数据） **/
+    public static final int PRIORITY_LOW                = 2;
+
+    /** 发送队列已满时阻塞生产者 **/
+    public static final int QUEUE_POLICY_BLOCK          = 0;
+
+    /** 发送队列已满时抛出{@link IllegalStateException} **/
+    public static final int QUEUE_POLICY_FAIL_FAST      = 1;
+
+    /** 发送队列已满时丢弃最早排队的数据 **/
+    public static final int QUEUE_POLICY_DROP_OLDEST    = 2;
+
+    /** 发送队列已满时丢弃最早排队且符合{@link DropFilter}的数据 **/
+    public static final int QUEUE_POLICY_DROP_FILTER    = 3;
+
+    static final HashedWheelTimer timer
+    = new HashedWheelTimer("Socket定时器", 10, TimeUnit.MILLISECONDS, 512);
+
     private final String host;                          // 主机地址
 
     private final int port;                             // 端口号
 
+    private final SocketEndpoints endpoints;            // 多个服务器地址（竞争连接）
+
     private final int timeout;                          // 连接超时
 
     private final boolean handShake;                    // 握手成功才能连接
 
-    private final LinkedList<SocketData> conns;         // 请求队列
+    private volatile SocketUtil.Crypto crypto;          // 数据密钥（握手后生成）
+
+    private final SocketSendQueue conns;                // 请求队列
 
     private SocketConnectionListener listener;          // Socket连接监听器
 
     private SocketReceiver receiver;                    // Socket接收器（解析数据）
 
+    private SocketDispatcher dispatcher;                // 接收数据分发器
+
     private java.net.Proxy proxy;                       // 连接代理
 
+    private SocketEventLoopGroup eventLoopGroup;        // 多路复用事件循环组
+
+    private int batchMaxBytes = 64 * 1024;              // 单次写入最大字节数
+
+    private int batchMaxFrames = 64;                    // 单次写入最多数据包数
+
+    private long lingerNanos;                           // 批量发送等待时间
+
+    private final SocketSendStats sendStats = new SocketSendStats();
+
+    private int queueMaxFrames = Integer.MAX_VALUE;     // 发送队列容量（数据包数）
+
+    private long queueMaxBytes = Long.MAX_VALUE;        // 发送队列容量（字节数）
+
+    private int queuePolicy = QUEUE_POLICY_BLOCK;       // 发送队列已满时的处理策略
+
+    private DropFilter dropFilter;                      // 可丢弃数据过滤器
+
+    private PriorityResolver priorityResolver;          // 数据优先级解析器
+
+    private int lowWatermark;                           // 发送队列低水位
+
+    private int highWatermark;                          // 发送队列高水位（0表示不监听）
+
+    private final AtomicBoolean isHighWatermark = new AtomicBoolean();
+
+    private MsgIdResolver msgIdResolver;                // 消息ID解析器
+
+    private final IntHashMap<SocketFuture> pendings
+    = new IntHashMap<SocketFuture>();                   // 等待应答的请求
+
+    private long reconnectBaseMillis;                   // 重连初始间隔（0表示不自动重连）
+
+    private long reconnectMaxMillis;                    // 重连最大间隔
+
+    private int reconnectMaxAttempts;                   // 最多连续重连次数（0表示不限）
+
+    private final AtomicInteger reconnectAttempts = new AtomicInteger();
+
+    private SocketRetransmitBuffer retransmit;          // 未应答数据包重传缓冲区
+
+    private SocketHeartbeat heartbeat;                  // 心跳检测
+
+    private volatile boolean useVirtualThreads;         // 收发线程使用虚拟线程
+
+    private static ThreadFactory virtualThreadFactory;
+
     private final ThreadFactory socketThreadFactory = new ThreadFactory() {
 
         @Override
         public Thread newThread(Runnable r) {
+            if (useVirtualThreads) return getVirtualThreadFactory().newThread(r);
             Thread t = new Thread(r, "Socket网络连接");
 
             t.setDaemon(true);
@@ -66,7 +152,99 @@ public class SocketConnector {
     }
 
     /**
-     * Socket接收数据解析
+     * 已知长度的Socket数据包，用于按字节数限制发送队列
+     */
+    public interface SizedData extends SocketData {
+
+        /**
+         * 数据包序列化后的长度
+         */
+        int length();
+    }
+
+    /**
+     * 指定了优先级的Socket数据包
+     */
+    public interface PrioritizedData extends SocketData {
+
+        /**
+         * @return {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_LOW}
+         */
+        int priority();
+    }
+
+    /**
+     * 数据优先级解析（例如按指令码区分应答与普通消息）
+     */
+    public interface PriorityResolver {
+
+        /**
+         * @return {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_LOW}
+         */
+        int resolvePriority(SocketData data);
+    }
+
+    /**
+     * 发送队列已满时判断数据是否可丢弃
+     */
+    public interface DropFilter {
+
+        boolean canDrop(SocketData data);
+    }
+
+    /**
+     * 发送句柄，用于取消还未发出的数据
+     */
+    public interface SendHandle {
+
+        /**
+         * 取消发送（数据正在发送或已发送时返回false）
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        /**
+         * 数据已发送或已取消
+         */
+        boolean isDone();
+    }
+
+    /**
+     * 消息ID解析（用于匹配请求与应答）
+     */
+    public interface MsgIdResolver {
+
+        /**
+         * @param data 发送的数据包或接收到的数据
+         * @return 消息ID，0表示没有消息ID
+         */
+        int resolveMsgId(Object data);
+    }
+
+    /**
+     * 心跳数据包
+     */
+    public interface HeartbeatHandler {
+
+        /**
+         * 生成心跳请求（消息ID应为0，不参与应答匹配与重传）
+         * 
+         * @param seq 心跳序号（非负数）
+         */
+        SocketData newPing(int seq);
+
+        /**
+         * @param data 接收到的数据
+         * @return 心跳应答的序号，不是心跳应答时返回-1
+         */
+        int resolvePong(Object data);
+    }
+
+    /**
+     * Socket接收数据解析<p>
+     * 多路复用模式下数据不完整时输入流抛出IOException，等后续数据到达后从数据包起始位置重新调用{@link #parseData(InputStream)}，
+     * 因此实现须无状态：不能在内部缓存已读取的数据，也不能捕获输入流的IOException
      */
     public interface SocketReceiver {
 
@@ -88,11 +266,44 @@ public class SocketConnector {
      * @param handShake 通讯是否需要握手
      */
     public SocketConnector(String host, int port, int timeout, boolean handShake) {
+        this(host, port, null, timeout, handShake);
+    }
+
+    /**
+     * 连接多个服务器地址，同时解析域名的所有A记录，间隔一段时间依次发起连接，最先握手成功的胜出<br>
+     * 设置代理后只连接第一个地址
+     * 
+     * @param endpoints 服务器地址列表（如导航配置的Socket服务器地址）
+     * @param timeout 每个地址的连接超时
+     * @param handShake 通讯是否需要握手
+     */
+    public SocketConnector(SocketEndpoints endpoints, int timeout, boolean handShake) {
+        this(null, 0, endpoints, timeout, handShake);
+    }
+
+    private SocketConnector(String host, int port, SocketEndpoints endpoints, int timeout, boolean handShake) {
         this.host = host;
         this.port = port;
+        this.endpoints = endpoints;
         this.timeout = timeout;
         this.handShake = handShake;
-        conns = new LinkedList<SocketData>();
+        conns = new SocketSendQueue(8, 4, 1);
+        conns.setCancelListener(new Runnable() {
+
+            @Override
+            public void run() {
+                onDequeue();
+            }
+        });
+    }
+
+    /**
+     * 服务器地址列表（包含每个地址的连接评分）
+     * 
+     * @return 未使用多个地址时返回null
+     */
+    public SocketEndpoints getEndpoints() {
+        return endpoints;
     }
 
     /**
@@ -131,20 +342,222 @@ public class SocketConnector {
         return this;
     }
 
+    /**
+     * 设置接收数据分发器（监听器的{@link SocketConnectionListener#onReceive(Object)}改在工作线程中执行）<br>
+     * 心跳应答和请求应答仍在接收线程中处理
+     */
+    public SocketConnector setDispatcher(SocketDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        return this;
+    }
+
+    /**
+     * 连接、接收和发送线程使用虚拟线程（Java 21+，不支持时仍使用普通线程），须在连接前设置<br>
+     * 阻塞式的收发方式不变，每个连接只占用很少的资源，适合大量连接（多路复用模式由事件循环收发，不受影响）
+     */
+    public SocketConnector setVirtualThreads(boolean enable) {
+        this.useVirtualThreads = enable;
+        return this;
+    }
+
+    private static synchronized ThreadFactory getVirtualThreadFactory() {
+        if (virtualThreadFactory == null)
+        {
+            virtualThreadFactory = MyThreadFactory.newVirtualThreadFactory("Socket网络连接");
+        }
+
+        return virtualThreadFactory;
+    }
+
+    /**
+     * 使用多路复用模式（由事件循环组驱动数据收发，不再为每个连接创建收发线程）<br>
+     * 注意：设置代理后仍使用阻塞模式<br>
+     * 此模式下{@link SocketReceiver}可能对同一数据包重复解析（见其说明），
+     * 监听器在共享的事件循环线程中回调，会阻塞同一线程上的所有连接，耗时处理请使用{@link #setDispatcher(SocketDispatcher)}
+     */
+    public SocketConnector setEventLoopGroup(SocketEventLoopGroup group) {
+        this.eventLoopGroup = group;
+        return this;
+    }
+
+    /**
+     * 设置批量发送参数（发送线程一次取出队列中的多个数据包合并写入）
+     * 
+     * @param maxBytes 单次写入最大字节数
+     * @param maxFrames 单次写入最多数据包数，为1时不合并
+     * @param lingerMicros 未达到上限时等待后续数据的时间（微秒），0表示不等待<br>
+     * 多路复用模式下事件循环的调度间隔本身起到合并作用，忽略此参数
+     */
+    public SocketConnector setSendBatch(int maxBytes, int maxFrames, long lingerMicros) {
+        this.batchMaxBytes = Math.max(1, maxBytes);
+        this.batchMaxFrames = Math.max(1, maxFrames);
+        this.lingerNanos = Math.max(0, lingerMicros) * 1000;
+        return this;
+    }
+
+    /**
+     * 限制发送队列容量，防止服务器响应缓慢时内存无限增长
+     * 
+     * @param maxFrames 最多排队的数据包数
+     * @param maxBytes 最多排队的字节数（只统计实现{@link SizedData}的数据），0表示不限制
+     * @param policy 队列已满时的处理策略，参见{@link #QUEUE_POLICY_BLOCK}等常量
+     */
+    public SocketConnector setSendQueueLimit(int maxFrames, long maxBytes, int policy) {
+        this.queueMaxFrames = maxFrames > 0 ? maxFrames : Integer.MAX_VALUE;
+        this.queueMaxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.queuePolicy = policy;
+        return this;
+    }
+
+    /**
+     * 设置可丢弃数据过滤器（配合{@link #QUEUE_POLICY_DROP_FILTER}使用）
+     */
+    public SocketConnector setDropFilter(DropFilter filter) {
+        this.dropFilter = filter;
+        return this;
+    }
+
+    /**
+     * 设置发送队列水位，监听器需实现{@link SocketConnectionListener.QueueWatermarkListener}
+     * 
+     * @param low 队列深度回落到此值时通知
+     * @param high 队列深度达到此值时通知
+     */
+    public SocketConnector setQueueWatermark(int low, int high) {
+        this.lowWatermark = Math.min(low, high);
+        this.highWatermark = high;
+        return this;
+    }
+
+    /**
+     * 设置优先级解析器，未指定优先级的数据由此决定发送通道
+     */
+    public SocketConnector setPriorityResolver(PriorityResolver resolver) {
+        this.priorityResolver = resolver;
+        return this;
+    }
+
+    /**
+     * 设置各优先级通道的权重（每轮轮询可发送的数据包数）<br>
+     * 低优先级数据最多等待其它通道权重之和个数据包，默认为8:4:1
+     */
+    public SocketConnector setPriorityWeights(int high, int normal, int low) {
+        conns.setWeights(high, normal, low);
+        return this;
+    }
+
+    /**
+     * 设置消息ID解析器，收到的数据与等待应答的请求消息ID相同时完成对应的{@link SocketFuture}，
+     * 不再回调{@link SocketConnectionListener#onReceive(Object)}
+     */
+    public SocketConnector setMsgIdResolver(MsgIdResolver resolver) {
+        this.msgIdResolver = resolver;
+        return this;
+    }
+
+    /**
+     * 连接断开或连接失败时自动重连，重连间隔按指数退避并加入随机抖动，
+     * 避免服务器重启后大量客户端同时重连<br>
+     * 监听器可实现{@link SocketConnectionListener.ReconnectListener}获取重连通知
+     * 
+     * @param baseDelayMillis 首次重连间隔（毫秒），0表示不自动重连
+     * @param maxDelayMillis 最大重连间隔（毫秒）
+     * @param maxAttempts 最多连续重连次数，超过后关闭连接，0表示不限
+     */
+    public SocketConnector setReconnect(long baseDelayMillis, long maxDelayMillis, int maxAttempts) {
+        this.reconnectBaseMillis = Math.max(0, baseDelayMillis);
+        this.reconnectMaxMillis = Math.max(reconnectBaseMillis, maxDelayMillis);
+        this.reconnectMaxAttempts = Math.max(0, maxAttempts);
+        return this;
+    }
+
+    /**
+     * 开启未应答数据包重传：已发出且带有消息ID的数据包保存至收到相同消息ID的数据为止，
+     * 重连后在握手完成时按原顺序重发（先于发送队列中的数据）<br>
+     * 重发的数据包与原数据包完全相同（聊天消息的id字段不变），由服务器据此排重<br>
+     * 需要设置{@link MsgIdResolver}
+     * 
+     * @param maxFrames 最多保存的数据包数，超出时丢弃最早的数据包，0表示关闭重传
+     */
+    public SocketConnector setRetransmit(int maxFrames) {
+        this.retransmit = maxFrames > 0 ? new SocketRetransmitBuffer(maxFrames) : null;
+        return this;
+    }
+
+    /**
+     * 开启应用层心跳：一个间隔内没有收到任何数据时发送心跳请求，
+     * 连续多次心跳没有应答则认为连接已失效（设置了自动重连时重连，否则关闭连接）<br>
+     * 所有连接共享同一个定时器线程，心跳应答不再回调{@link SocketConnectionListener#onReceive(Object)}
+     * 
+     * @param intervalMillis 心跳间隔（毫秒）
+     * @param maxMissed 最多允许连续丢失的心跳数
+     * @param handler 心跳数据包，为null时关闭心跳
+     */
+    public SocketConnector setHeartbeat(long intervalMillis, int maxMissed, HeartbeatHandler handler) {
+        this.heartbeat = handler == null ? null
+                : new SocketHeartbeat(this, handler, Math.max(1, intervalMillis), Math.max(1, maxMissed));
+        return this;
+    }
+
+    /**
+     * 平滑往返时延（由心跳测得）
+     * 
+     * @return 毫秒，没有测量数据时返回-1
+     */
+    public long getRtt() {
+        SocketHeartbeat heartbeat = this.heartbeat;
+        return heartbeat != null ? heartbeat.getRtt() : -1;
+    }
+
+    /**
+     * 往返时延抖动（由心跳测得）
+     * 
+     * @return 毫秒，没有测量数据时返回-1
+     */
+    public long getRttVar() {
+        SocketHeartbeat heartbeat = this.heartbeat;
+        return heartbeat != null ? heartbeat.getRttVar() : -1;
+    }
+
+    /**
+     * 根据往返时延计算的请求超时时间（平滑往返时延 + 4倍抖动，限制在1~60秒）
+     * 
+     * @return 毫秒，没有测量数据时返回3秒
+     */
+    public long getAdaptiveTimeout() {
+        SocketHeartbeat heartbeat = this.heartbeat;
+        return heartbeat != null ? heartbeat.getTimeout() : SocketHeartbeat.INITIAL_TIMEOUT;
+    }
+
+    /**
+     * 发送队列中等待发送的数据包数
+     */
+    public int getQueueDepth() {
+        return conns.size();
+    }
+
+    /**
+     * 发送队列中等待发送的字节数（只统计实现{@link SizedData}的数据）
+     */
+    public long getQueueBytes() {
+        return conns.bytes();
+    }
+
+    /**
+     * 获取发送统计（每次写入的数据包数等）
+     */
+    public SocketSendStats getSendStats() {
+        return sendStats;
+    }
+
+    private boolean isMultiplexed() {
+        return eventLoopGroup != null && proxy == null;
+    }
+
     private SocketReceiver getReceiver() {
         if (receiver == null)
         {
-            receiver = new SocketReceiver() {
-
-                @Override
-                public Object parseData(InputStream in) throws IOException {
-                    int length = in.read();
-                    byte[] data = new byte[length];
-                    in.read(data);
-                    SocketUtil.crypt(data);
-                    return data;
-                }
-            };
+            receiver = new SocketFrameCodec(this);
         }
 
         return receiver;
@@ -159,16 +572,32 @@ public class SocketConnector {
         if (isClosed())
         {
             isClosed = new AtomicBoolean();
-            socketThreadPool.execute(new Runnable() {
-
-                @Override
-                public void run() {
-                    connect(isClosed);
-                }
-            });
+            reconnectAttempts.set(0);
+            execute(isClosed);
         }
     }
 
+    private ExecutorService getConnectExecutor() {
+        return isMultiplexed() ? eventLoopGroup.connectExecutor() : socketThreadPool;
+    }
+
+    /**
+     * 执行可能阻塞的任务（事件循环线程中不能直接执行）
+     */
+    void executeBlocking(Runnable task) {
+        getConnectExecutor().execute(task);
+    }
+
+    private void execute(final AtomicBoolean isClosed) {
+        getConnectExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                connect(isClosed);
+            }
+        });
+    }
+
     /**
      * 关闭网络连接
      */
@@ -184,6 +613,10 @@ public class SocketConnector {
             } finally {
                 socketLock.unlock();
             }
+
+            signalNotFull();
+            failPendings(new SocketException("连接已关闭"));
+            if (retransmit != null) retransmit.clear();
         }
     }
 
@@ -211,94 +644,571 @@ public class SocketConnector {
         }
     }
 
-    private SocketData take() throws InterruptedException {
+    /**
+     * 取出可发送的数据，没有时等待（仅发送线程调用）
+     *
+     * @return 被唤醒时仍没有可发送的数据（如连接已关闭）返回null，由调用方检查状态后重试
+     */
+    private SocketSendQueue.Node take() throws InterruptedException {
+        SocketSendQueue.Node node = conns.claim();
+        if (node != null)
+        {
+            return node;
+        }
+
         final ReentrantLock takeLock = this.takeLock;
         takeLock.lockInterruptibly();
         try {
-            if (conns.size() == 0)
+            // 计数包含暂时取不出的数据（如仍处于发送中），以能否取出为准
+            if ((node = conns.claim()) == null)
             {
                 notEmpty.await();
             }
-
-            return conns.peek();
         } finally {
             takeLock.unlock();
         }
+
+        return node;
     }
 
+    /** Lock held by put when the queue is full */
+    private final ReentrantLock putLock = new ReentrantLock();
+
+    /** Wait queue for waiting puts */
+    private final Condition notFull = putLock.newCondition();
+
+    private final AtomicInteger waitingPuts = new AtomicInteger();
+
     /**
-     * 发送数据
+     * Signals waiting puts. Called after data leaves the queue.
      */
-    public void send(SocketData data) {
-        int size = conns.size();
-        conns.add(data);
-        if (size == 0)
+    private void signalNotFull() {
+        if (waitingPuts.get() > 0)
         {
-            signalNotEmpty();
+            final ReentrantLock putLock = this.putLock;
+            putLock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                putLock.unlock();
+            }
         }
     }
 
-    /**
-     * 如果数据还未发出去，可以取消发送，数据必须实现{@link #equals(Object)}接口
-     */
-    public void cancel(SocketData data) {
-        conns.remove(data);
-    }
-
-    public void clear() {
-        conns.clear();
+    private boolean isFull(int length) {
+        int size = conns.size();
+        return size > 0 && (size >= queueMaxFrames || conns.bytes() + length > queueMaxBytes);
     }
-    
-    /******************** 数据收发 ********************/
-
-    private Socket socket;                              // Socket连接
-
-    private InputStream in;                             // 数据输入流
 
-    private OutputStream out;                           // 数据输出流
-
-    private AtomicBoolean isRunning;
-
-    private void recv(AtomicBoolean isRunning) {
-        while (isRunning.get())
-        {
-            try {
-                while (isRunning.get())
+    /**
+     * 发送队列已满时按策略腾出空间（容量限制为近似值，并发生产者可能少量超出）
+     * 
+     * @return 是否可以入队
+     */
+    private boolean makeRoom(SocketData data, int length) {
+        switch (queuePolicy) {
+            case QUEUE_POLICY_BLOCK:
+                return awaitNotFull(length);
+            case QUEUE_POLICY_DROP_OLDEST:
+                while (isFull(length) && conns.drop(null));
+                return true;
+            case QUEUE_POLICY_DROP_FILTER:
+                while (isFull(length))
                 {
-                    Object data = getReceiver().parseData(in);
-                    if (data != null && listener != null)
+                    if (dropFilter == null || !conns.drop(dropFilter))
                     {
-                        listener.onReceive(data);
+                        if (dropFilter != null && dropFilter.canDrop(data))
+                        {
+                            return false;
+                        }
+
+                        throw new IllegalStateException("发送队列已满");
                     }
                 }
-            } catch (Exception e) {
-                if (isRunning.get())
+
+                return true;
+            default:
+                throw new IllegalStateException("发送队列已满");
+        }
+    }
+
+    private boolean awaitNotFull(int length) {
+        final ReentrantLock putLock = this.putLock;
+        waitingPuts.incrementAndGet();
+        putLock.lock();
+        try {
+            while (isFull(length))
+            {
+                if (isClosed())
                 {
-                    onError(e);
+                    return false;
                 }
+
+                notFull.await();
             }
+
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            putLock.unlock();
+            waitingPuts.decrementAndGet();
         }
     }
 
-    private void send(AtomicBoolean isRunning) {
-        while (isRunning.get())
+    /**
+     * 发送数据（线程安全）<br>
+     * 发送队列已满时按{@link #setSendQueueLimit(int, long, int)}设置的策略处理，
+     * 数据被丢弃时返回的句柄处于取消状态
+     * 
+     * @return 发送句柄，可在数据发出前取消
+     */
+    public SendHandle send(SocketData data) {
+        int priority;
+        if (data instanceof PrioritizedData)
+        {
+            priority = ((PrioritizedData) data).priority();
+        }
+        else if (priorityResolver != null)
+        {
+            priority = priorityResolver.resolvePriority(data);
+        }
+        else
+        {
+            priority = PRIORITY_NORMAL;
+        }
+
+        return send(data, priority);
+    }
+
+    /**
+     * 按指定优先级发送数据（线程安全），高优先级数据可超越排队中的低优先级数据
+     * 
+     * @param priority {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_LOW}
+     */
+    public SendHandle send(SocketData data, int priority) {
+        priority = Math.max(PRIORITY_HIGH, Math.min(PRIORITY_LOW, priority));
+        int length = data instanceof SizedData ? ((SizedData) data).length() : 0;
+        SocketSendQueue.Node node = new SocketSendQueue.Node(conns, data, priority, length);
+        if (isFull(length) && !makeRoom(data, length))
+        {
+            node.reject();
+            return node;
+        }
+
+        offer(node);
+        return node;
+    }
+
+    private void offer(SocketSendQueue.Node node) {
+        int size = conns.offer(node);
+        if (highWatermark > 0 && size + 1 >= highWatermark)
+        {
+            onQueueWatermark(true);
+        }
+
+        if (size == 0)
+        {
+            SocketChannelSession session = this.session;
+            if (session != null)
+            {
+                session.requestFlush();
+            }
+            else
+            {
+                signalNotEmpty();
+            }
+        }
+    }
+
+    /**
+     * 不受发送队列容量限制直接入队（发送线程追加数据时使用，不能等待自己腾出空间）
+     */
+    SendHandle sendUnbounded(SocketData data, int priority) {
+        int length = data instanceof SizedData ? ((SizedData) data).length() : 0;
+        SocketSendQueue.Node node = new SocketSendQueue.Node(conns, data, priority, length);
+        offer(node);
+        return node;
+    }
+
+    /**
+     * 发送心跳（定时器线程调用，不受发送队列容量限制）
+     */
+    void sendHeartbeat(SocketData ping) {
+        int length = ping instanceof SizedData ? ((SizedData) ping).length() : 0;
+        offer(new SocketSendQueue.Node(conns, ping, PRIORITY_HIGH, length));
+    }
+
+    /**
+     * 心跳超时，连接已失效
+     */
+    void onHeartbeatTimeout(final int generation) {
+        // 定时器线程不可阻塞
+        getConnectExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                SocketHeartbeat heartbeat = SocketConnector.this.heartbeat;
+                if (heartbeat == null || !heartbeat.isCurrent(generation))
+                {
+                    return;
+                }
+
+                SocketTimeoutException e = new SocketTimeoutException("心跳超时");
+                if (reconnectBaseMillis > 0)
+                {
+                    reconnect(e);
+                }
+                else
+                {
+                    onError(e);
+                    close();
+                }
+            }
+        });
+    }
+
+    /**
+     * 发送请求并等待应答，消息ID由{@link MsgIdResolver}解析
+     * 
+     * @see #sendAndAwait(SocketData, int, long)
+     */
+    public SocketFuture sendAndAwait(SocketData data, long timeoutMillis) {
+        if (msgIdResolver == null)
+        {
+            throw new IllegalStateException("未设置消息ID解析器");
+        }
+
+        return sendAndAwait(data, msgIdResolver.resolveMsgId(data), timeoutMillis);
+    }
+
+    /**
+     * 发送请求并等待应答（线程安全）<br>
+     * 需要设置{@link MsgIdResolver}解析收到的数据，超时由共享的时间轮定时器处理
+     * 
+     * @param msgId 请求的消息ID，不能为0
+     * @param timeoutMillis 等待应答的超时时间（毫秒），0表示不超时，
+     * 负数表示使用{@link #getAdaptiveTimeout()}
+     * @return 收到相同消息ID的数据时完成
+     */
+    public SocketFuture sendAndAwait(SocketData data, int msgId, long timeoutMillis) {
+        if (msgId == 0)
+        {
+            throw new IllegalArgumentException("msgId must not be 0");
+        }
+
+        final SocketFuture future = new SocketFuture(this, msgId);
+        synchronized (pendings) {
+            if (pendings.containsKey(msgId))
+            {
+                future.fail(new IllegalStateException("消息ID重复:" + msgId));
+                return future;
+            }
+
+            pendings.put(msgId, future);
+        }
+
+        if (timeoutMillis < 0)
+        {
+            timeoutMillis = getAdaptiveTimeout();
+        }
+
+        if (timeoutMillis > 0)
+        {
+            future.setTimeout(timer.newTimeout(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (removePending(future))
+                    {
+                        future.fail(new SocketTimeoutException("等待响应超时"));
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+
+        try {
+            SendHandle handle = send(data);
+            future.setHandle(handle);
+            if (handle.isCancelled() && removePending(future))
+            {
+                future.fail(new SocketException("发送队列已满，请求被丢弃"));
+            }
+        } catch (RuntimeException e) {
+            if (removePending(future)) future.fail(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * 移出等待应答的请求
+     * 
+     * @return 请求是否仍在等待
+     */
+    boolean removePending(SocketFuture future) {
+        int msgId = future.getMsgId();
+        synchronized (pendings) {
+            if (pendings.get(msgId) == future)
+            {
+                pendings.remove(msgId);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 等待应答的请求数量
+     */
+    public int getPendingCount() {
+        synchronized (pendings) {
+            return pendings.size();
+        }
+    }
+
+    private void failPendings(Throwable e) {
+        final SocketFuture[] futures;
+        synchronized (pendings) {
+            if (pendings.isEmpty()) return;
+            futures = new SocketFuture[pendings.size()];
+            pendings.forEach(new IntHashMap.Visitor<SocketFuture>() {
+
+                int i;
+
+                @Override
+                public void visit(int key, SocketFuture value) {
+                    futures[i++] = value;
+                }
+            });
+            pendings.clear();
+        }
+
+        for (SocketFuture future : futures)
+        {
+            future.fail(e);
+        }
+    }
+
+    /**
+     * 如果数据还未发出去，可以取消发送，数据必须实现{@link #equals(Object)}接口<br>
+     * 需要遍历队列，建议使用{@link SendHandle#cancel()}
+     */
+    public void cancel(SocketData data) {
+        conns.cancel(data);
+    }
+
+    public void clear() {
+        conns.clear();
+    }
+    
+    /******************** 数据收发 ********************/
+
+    private Socket socket;                              // Socket连接
+
+    private InputStream in;                             // 数据输入流
+
+    private OutputStream out;                           // 数据输出流
+
+    private AtomicBoolean isRunning;
+
+    private volatile SocketChannelSession session;      // 多路复用连接
+
+    Object parseData(InputStream in) throws IOException {
+        return getReceiver().parseData(in);
+    }
+
+    void onReceiveData(Object data) {
+        SocketHeartbeat heartbeat = this.heartbeat;
+        if (heartbeat != null)
+        {
+            heartbeat.onRead();
+            if (data != null && heartbeat.onReceive(data))
+            {
+                return;
+            }
+        }
+
+        if (data != null && msgIdResolver != null)
+        {
+            int msgId = msgIdResolver.resolveMsgId(data);
+            if (msgId != 0)
+            {
+                if (retransmit != null) retransmit.ack(msgId);
+                SocketFuture future;
+                synchronized (pendings) {
+                    future = pendings.remove(msgId);
+                }
+
+                if (future != null)
+                {
+                    future.complete(data);
+                    return;
+                }
+            }
+        }
+
+        if (data != null && listener != null)
+        {
+            if (dispatcher != null)
+            {
+                dispatcher.dispatch(listener, data);
+            }
+            else
+            {
+                listener.onReceive(data);
+            }
+        }
+    }
+
+    SocketSendQueue.Node claimData() {
+        return conns.claim();
+    }
+
+    void fillBatch(SocketSendBatch batch, SocketSendQueue.Node first) throws IOException {
+        batch.fill(conns, first, batchMaxBytes, batchMaxFrames, 0);
+    }
+
+    /**
+     * @param connection 写出数据的连接（多路复用连接或阻塞模式的收发线程标志）
+     */
+    void commitBatch(SocketSendBatch batch, Object connection) {
+        SocketRetransmitBuffer retransmit = this.retransmit;
+        MsgIdResolver msgIdResolver = this.msgIdResolver;
+        for (int i = 0, n = batch.frames(); i < n; i++)
+        {
+            SocketData data = batch.getData(i);
+            if (data instanceof SocketChunkSender.Chunk)
+            {
+                // 分片不参与重传，写出后发送下一个分片
+                ((SocketChunkSender.Chunk) data).onSent(connection);
+            }
+            else if (retransmit != null && msgIdResolver != null)
+            {
+                int msgId = msgIdResolver.resolveMsgId(data);
+                if (msgId != 0) retransmit.add(msgId, data);
+            }
+        }
+
+        batch.commit(conns, sendStats);
+        onDequeue();
+    }
+
+    /**
+     * 数据出队（已发送、取消或丢弃）后唤醒等待的生产者并检查低水位
+     */
+    private void onDequeue() {
+        signalNotFull();
+        if (highWatermark > 0 && conns.size() <= lowWatermark)
+        {
+            onQueueWatermark(false);
+        }
+    }
+
+    private void onQueueWatermark(boolean isHigh) {
+        if (isHighWatermark.compareAndSet(!isHigh, isHigh)
+        && listener instanceof SocketConnectionListener.QueueWatermarkListener)
+        {
+            SocketConnectionListener.QueueWatermarkListener l
+            = (SocketConnectionListener.QueueWatermarkListener) listener;
+            if (isHigh)
+            {
+                l.onHighWatermark(conns.size(), conns.bytes());
+            }
+            else
+            {
+                l.onLowWatermark(conns.size(), conns.bytes());
+            }
+        }
+    }
+
+    void releaseBatch(SocketSendBatch batch) {
+        batch.release(conns);
+        // 入队时只在队列为空时唤醒，归还的数据需主动唤醒当前连接发送
+        SocketChannelSession session = this.session;
+        if (session != null)
+        {
+            session.requestFlush();
+        }
+        else
+        {
+            signalNotEmpty();
+        }
+    }
+
+    /**
+     * 多路复用连接出错（每个连接只回调一次）
+     */
+    void onTransportError(Exception e) {
+        if (reconnectBaseMillis > 0)
+        {
+            reconnect(e);
+        }
+        else
+        {
+            onError(e);
+        }
+    }
+
+    /**
+     * 阻塞模式收发线程出错
+     */
+    private void onTransportError(AtomicBoolean isRunning, Exception e) {
+        if (reconnectBaseMillis > 0)
+        {
+            // 收发线程可能同时出错，只重连一次
+            if (isRunning.compareAndSet(true, false)) reconnect(e);
+        }
+        else if (isRunning.get())
+        {
+            onError(e);
+        }
+    }
+
+    private void recv(AtomicBoolean isRunning, SocketReadBuffer in) {
+        try {
+            while (isRunning.get())
+            {
+                try {
+                    while (isRunning.get())
+                    {
+                        onReceiveData(parseData(in));
+                    }
+                } catch (Exception e) {
+                    onTransportError(isRunning, e);
+                }
+            }
+        } finally {
+            in.release();
+        }
+    }
+
+    private void send(AtomicBoolean isRunning) {
+        SocketSendBatch batch = new SocketSendBatch();
+        while (isRunning.get())
         {
             try {
                 while (isRunning.get())
                 {
-                    SocketData data = take();
-                    if (data != null)
+                    SocketSendQueue.Node node = take();
+                    if (node != null)
                     {
-                        data.wrapData(out);
-                        out.flush();
-                        conns.poll();
+                        try {
+                            batch.fill(conns, node, batchMaxBytes, batchMaxFrames, lingerNanos);
+                            batch.buffer.writeTo(out);
+                            out.flush();
+                        } catch (Exception e) {
+                            batch.release(conns);
+                            throw e;
+                        }
+
+                        commitBatch(batch, isRunning);
                     }
                 }
             } catch (Exception e) {
-                if (isRunning.get())
-                {
-                    onError(e);
-                }
+                onTransportError(isRunning, e);
             }
         }
     }
@@ -307,7 +1217,16 @@ public class SocketConnector {
 
     private final ReentrantLock socketLock = new ReentrantLock();
 
+    private SocketEndpoints.Race race;                  // 正在进行的连接竞争
+
     private void connect(final AtomicBoolean isClosed) {
+        if (endpoints != null && proxy == null)
+        {
+            race(isClosed);
+            return;
+        }
+
+        Exception error = null;
         socketLock.lock();
         try {
             if (isClosed.get())
@@ -315,7 +1234,11 @@ public class SocketConnector {
                 return;
             }
             
-            if (proxy == null)
+            if (isMultiplexed())
+            {
+                socket = SocketChannel.open().socket();
+            }
+            else if (proxy == null)
             {
                 socket = new Socket();
             }
@@ -323,20 +1246,25 @@ public class SocketConnector {
             {
                 socket = new Socket(proxy);
             }
+        } catch (IOException e) {
+            error = e;
         } finally {
             socketLock.unlock();
         }
 
+        if (error != null)
+        {
+            onConnectFailed(isClosed, error);
+            return;
+        }
+
         try {
             // 建立连接
-            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.connect(endpoints != null ? endpoints.first()
+                    : new InetSocketAddress(host, port), timeout);
         } catch (Exception e) {
             socket = null;
-            if (!isClosed.getAndSet(true))
-            {
-                onError(e);
-            }
-
+            onConnectFailed(isClosed, e);
             return;
         }
 
@@ -354,28 +1282,193 @@ public class SocketConnector {
             if (handShake) handshake(in, out);
             onConnected();
         } catch (Exception e) {
-            if (!isClosed.getAndSet(true))
+            if (!isClosed.get()) closeSocket();
+            error = e;
+        } finally {
+            socketLock.unlock();
+        }
+
+        if (error != null) onConnectFailed(isClosed, error);
+    }
+
+    /**
+     * 竞争连接多个服务器地址，最先握手成功的连接胜出
+     */
+    private void race(AtomicBoolean isClosed) {
+        SocketEndpoints.Race race;
+        try {
+            // 解析域名
+            race = endpoints.race(isMultiplexed(), timeout,
+                    handShake ? raceHandshake : null, socketThreadFactory);
+        } catch (IOException e) {
+            onConnectFailed(isClosed, e);
+            return;
+        }
+
+        socketLock.lock();
+        try {
+            if (isClosed.get())
+            {
+                return;
+            }
+
+            this.race = race;
+        } finally {
+            socketLock.unlock();
+        }
+
+        SocketEndpoints.Attempt attempt;
+        try {
+            attempt = race.next();
+        } catch (IOException e) {
+            onConnectFailed(isClosed, e);
+            return;
+        }
+
+        Exception error = null;
+        socketLock.lock();
+        try {
+            race.cancel();
+            if (isClosed.get() || this.race != race)
+            {
+                attempt.socket.close();
+                return;
+            }
+
+            this.race = null;
+            socket = attempt.socket;
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            crypto = (SocketUtil.Crypto) attempt.result;
+            onConnected();
+        } catch (Exception e) {
+            if (!isClosed.get()) closeSocket();
+            error = e;
+        } finally {
+            socketLock.unlock();
+        }
+
+        if (error != null) onConnectFailed(isClosed, error);
+    }
+
+    /** 竞争连接时握手得到的数据密钥（每个连接线程一个） **/
+    private final ThreadLocal<SocketUtil.Crypto[]> raceCrypto = new ThreadLocal<SocketUtil.Crypto[]>();
+
+    private final SocketEndpoints.Handshake raceHandshake = new SocketEndpoints.Handshake() {
+
+        @Override
+        public Object handshake(Socket socket) throws Exception {
+            SocketUtil.Crypto[] crypto = new SocketUtil.Crypto[1];
+            raceCrypto.set(crypto);
+            try {
+                // 握手无响应时由其他地址胜出
+                if (timeout > 0) socket.setSoTimeout(timeout);
+                SocketConnector.this.handshake(socket.getInputStream(), socket.getOutputStream());
+                socket.setSoTimeout(0);
+                return crypto[0];
+            } finally {
+                raceCrypto.remove();
+            }
+        }
+    };
+
+    /**
+     * 连接失败（须在释放socketLock后调用，重连次数用完时会关闭连接）
+     */
+    private void onConnectFailed(AtomicBoolean isClosed, Exception e) {
+        if (reconnectBaseMillis > 0)
+        {
+            if (!isClosed.get())
             {
-                closeSocket();
                 onError(e);
+                scheduleReconnect(isClosed);
+            }
+        }
+        else if (!isClosed.getAndSet(true))
+        {
+            onError(e);
+        }
+    }
+
+    /**
+     * 连接断开，释放当前连接后重连
+     */
+    private void reconnect(Exception e) {
+        AtomicBoolean isClosed;
+        synchronized (this) {
+            isClosed = this.isClosed;
+        }
+
+        if (isClosed == null) return;
+        socketLock.lock();
+        try {
+            if (isClosed.get())
+            {
+                return;
             }
+
+            closeSocket();
         } finally {
             socketLock.unlock();
         }
+
+        onError(e);
+        scheduleReconnect(isClosed);
+    }
+
+    private void scheduleReconnect(final AtomicBoolean isClosed) {
+        int attempt = reconnectAttempts.incrementAndGet();
+        if (reconnectMaxAttempts > 0 && attempt > reconnectMaxAttempts)
+        {
+            close();
+            return;
+        }
+
+        long delay = getReconnectDelay(attempt);
+        if (listener instanceof SocketConnectionListener.ReconnectListener)
+        {
+            ((SocketConnectionListener.ReconnectListener) listener).onReconnect(attempt, delay);
+        }
+
+        timer.newTimeout(new Runnable() {
+
+            @Override
+            public void run() {
+                // 定时器线程不可阻塞，交由连接线程执行
+                if (!isClosed.get()) execute(isClosed);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 指数退避加随机抖动：在[初始间隔, 初始间隔×2^(n-1)]之间随机取值（不超过最大间隔）
+     */
+    private long getReconnectDelay(int attempt) {
+        long delay = Math.min(reconnectBaseMillis << Math.min(attempt - 1, 20), reconnectMaxMillis);
+        return reconnectBaseMillis
+             + ThreadLocalRandom.current().nextLong(delay - reconnectBaseMillis + 1);
     }
     
     /**
-     * 可自定义握手协议
+     * 可自定义握手协议（使用多个服务器地址时在各自的连接线程中同时调用）
      */
     protected void handshake(InputStream in, OutputStream out) throws IOException {
         // 读取握手信息
         byte[] bs = new byte[16];
-        in.read(bs);
-        int crc = SocketUtil.handshake(bs);
-        out.write(crc);
+        for (int n = 0, len; n < bs.length; n += len)
+        {
+            if ((len = in.read(bs, n, bs.length - n)) < 0)
+            {
+                throw new EOFException("握手失败");
+            }
+        }
+
+        SocketUtil.Crypto crypto = new SocketUtil.Crypto(bs);
+        out.write(crypto.getCrc());
         if (in.read() == 0)
         {
             // 握手成功
+            setCrypto(crypto);
         }
         else
         {
@@ -383,15 +1476,54 @@ public class SocketConnector {
         }
     }
     
-    private void onConnected() {
+    /**
+     * 设置当前连接的数据密钥（自定义握手协议时调用，断开连接后清除）
+     */
+    protected final void setCrypto(SocketUtil.Crypto crypto) {
+        SocketUtil.Crypto[] slot = raceCrypto.get();
+        if (slot != null)
+        {
+            // 竞争连接中，胜出后才生效
+            slot[0] = crypto;
+        }
+        else
+        {
+            this.crypto = crypto;
+        }
+    }
+
+    /**
+     * 当前连接的数据密钥，用于自定义{@link SocketReceiver}
+     * 
+     * @return 未握手时返回null
+     */
+    public SocketUtil.Crypto getCrypto() {
+        return crypto;
+    }
+
+    private void onConnected() throws IOException {
+        replay();
+        reconnectAttempts.set(0);
+        if (heartbeat != null) heartbeat.start();
         if (listener != null) listener.onConnected(socket);
+        SocketChannel channel = socket.getChannel();
+        if (channel != null)
+        {
+            // 注册到事件循环
+            channel.configureBlocking(false);
+            session = new SocketChannelSession(this, channel, eventLoopGroup.next());
+            session.start();
+            return;
+        }
+
         // 建立网络收发线程
-        isRunning = new AtomicBoolean(true);
+        final AtomicBoolean isRunning = this.isRunning = new AtomicBoolean(true);
+        final SocketReadBuffer in = new SocketReadBuffer(this.in);
         startThread(new Runnable() {
 
             @Override
             public void run() {
-                recv(isRunning);
+                recv(isRunning, in);
             }
         }, "Socket数据接收");
         startThread(new Runnable() {
@@ -403,12 +1535,49 @@ public class SocketConnector {
         }, "Socket数据发送");
     }
 
+    /**
+     * 重发未应答的数据包（握手完成后，收发线程启动前直接写入）
+     */
+    private void replay() throws IOException {
+        if (retransmit == null || retransmit.size() == 0)
+        {
+            return;
+        }
+
+        SocketWriteBuffer buffer = new SocketWriteBuffer();
+        try {
+            for (SocketData data : retransmit.toArray())
+            {
+                data.wrapData(buffer);
+            }
+
+            buffer.writeTo(out);
+            out.flush();
+        } finally {
+            buffer.reset();
+        }
+    }
+
     private void closeSocket() {
-        if (isRunning != null && isRunning.compareAndSet(true, false))
+        if (race != null)
         {
+            race.cancel();
+            race = null;
+        }
+
+        if (isRunning != null)
+        {
+            isRunning.set(false);
             isRunning = null;
         }
 
+        if (heartbeat != null) heartbeat.stop();
+        if (session != null)
+        {
+            session.close();
+            session = null;
+        }
+
         if (socket != null)
         {
             if (socket.isConnected())
@@ -433,6 +1602,7 @@ public class SocketConnector {
 
         in = null;
         out = null;
+        crypto = null;
     }
 
     private void onError(Exception e) {
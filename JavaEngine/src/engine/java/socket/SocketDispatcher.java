@@ -0,0 +1,312 @@
+package engine.java.socket;
+
+import engine.java.util.extra.MyThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 接收数据分发器<p>
+ * 将{@link SocketConnectionListener#onReceive(Object)}从接收线程转到工作线程执行，
+ * 处理较慢的数据（如写数据库）不再阻塞网络读取<br>
+ * 每个工作线程有一个有界队列，相同键值的数据（如同一会话的消息）总是进入同一队列，保证按接收顺序处理<br>
+ * 队列已满时阻塞接收线程（由TCP流量控制反压对方），多路复用模式下会阻塞同一事件循环的其他连接<br>
+ * 可由多个连接共享
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class SocketDispatcher {
+
+    /**
+     * 分发键值解析器
+     */
+    public interface KeyResolver {
+
+        /**
+         * @param data 接收到的数据
+         * @return 键值相等（{@link Object#equals(Object)}）的数据按顺序处理，返回null表示没有顺序要求
+         */
+        Object resolveKey(Object data);
+    }
+
+    private static final class Task {
+
+        final SocketConnectionListener listener;
+
+        final Object data;
+
+        final long enqueueNanos;                        // 入队时间
+
+        Task(SocketConnectionListener listener, Object data) {
+            this.listener = listener;
+            this.data = data;
+            enqueueNanos = System.nanoTime();
+        }
+    }
+
+    private static final Task SHUTDOWN = new Task(null, null);
+
+    private static final long OFFER_WAIT_MILLIS = 100;         // 队列已满时让出锁的间隔（停止标记可插入）
+
+    private final KeyResolver resolver;
+
+    private final Lane[] lanes;
+
+    private final AtomicInteger next = new AtomicInteger();     // 没有键值时轮流分发
+
+    private final AtomicLong dispatched = new AtomicLong();     // 已处理的数据数
+
+    private final AtomicLong totalLagNanos = new AtomicLong();  // 排队时间总和
+
+    private volatile long maxLagNanos;                          // 最长排队时间
+
+    private volatile boolean isShutdown;
+
+    /**
+     * @param threads 工作线程数
+     * @param queueCapacity 每个工作线程的队列容量
+     * @param resolver 分发键值解析器，为null时所有数据按接收顺序在一个线程中处理
+     */
+    public SocketDispatcher(int threads, int queueCapacity, KeyResolver resolver) {
+        if (threads <= 0 || queueCapacity <= 0)
+        {
+            throw new IllegalArgumentException("threads and queueCapacity must be positive");
+        }
+
+        this.resolver = resolver;
+        if (resolver == null) threads = 1;
+        lanes = new Lane[threads];
+        ThreadFactory factory = new MyThreadFactory("Socket数据分发");
+        for (int i = 0; i < threads; i++)
+        {
+            (lanes[i] = new Lane(queueCapacity)).start(factory);
+        }
+    }
+
+    /**
+     * 分发数据（在接收线程中调用，队列已满时阻塞），已停止时在接收线程中直接处理
+     */
+    void dispatch(SocketConnectionListener listener, Object data) {
+        Task task = new Task(listener, data);
+        Lane lane = lanes[index(data)];
+        if (!lane.offer(task))
+        {
+            // 等待停止标记之前的数据处理完，保证相同键值的数据按顺序处理
+            lane.awaitExit();
+            onDispatch(task);
+        }
+    }
+
+    private int index(Object data) {
+        Object key = resolver != null ? resolver.resolveKey(data) : null;
+        int index;
+        if (key != null)
+        {
+            // 打散哈希值
+            int h = key.hashCode();
+            h ^= h >>> 16;
+            index = (h & 0x7fffffff) % lanes.length;
+        }
+        else
+        {
+            index = (next.getAndIncrement() & 0x7fffffff) % lanes.length;
+        }
+
+        return index;
+    }
+
+    /**
+     * 停止工作线程（已排队的数据处理完后退出），之后收到的数据等所在队列处理完后在接收线程中直接处理
+     */
+    public void shutdown() {
+        if (isShutdown) return;
+        isShutdown = true;
+        for (Lane lane : lanes)
+        {
+            lane.stop();
+        }
+    }
+
+    /**
+     * 已处理的数据数
+     */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /**
+     * 队列中等待处理的数据数
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes)
+        {
+            depth += lane.queue.size();
+        }
+
+        return depth;
+    }
+
+    /**
+     * 平均分发延迟（从接收线程入队到开始处理）
+     *
+     * @return 纳秒，没有数据时返回0
+     */
+    public long getAverageLagNanos() {
+        long n = dispatched.get();
+        return n > 0 ? totalLagNanos.get() / n : 0;
+    }
+
+    /**
+     * 最大分发延迟
+     *
+     * @return 纳秒
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    /**
+     * 清除延迟统计（如定期采样时调用）
+     */
+    public void resetStats() {
+        dispatched.set(0);
+        totalLagNanos.set(0);
+        maxLagNanos = 0;
+    }
+
+    private void onDispatch(Task task) {
+        long lag = System.nanoTime() - task.enqueueNanos;
+        totalLagNanos.addAndGet(lag);
+        dispatched.incrementAndGet();
+        if (lag > maxLagNanos) maxLagNanos = lag;
+
+        try {
+            task.listener.onReceive(task.data);
+        } catch (RuntimeException e) {
+            // 不影响后续数据
+            task.listener.onError(e);
+        }
+    }
+
+    /**
+     * 工作线程及其队列
+     */
+    private final class Lane implements Runnable {
+
+        final ArrayBlockingQueue<Task> queue;
+
+        private final ReentrantLock lock = new ReentrantLock();     // 入队与放入停止标记互斥
+
+        private boolean isStopped;                                  // 已放入停止标记
+
+        private final CountDownLatch exited = new CountDownLatch(1);
+
+        Lane(int capacity) {
+            queue = new ArrayBlockingQueue<Task>(capacity);
+        }
+
+        void start(ThreadFactory factory) {
+            factory.newThread(this).start();
+        }
+
+        /**
+         * 入队，队列已满时等待
+         *
+         * @return 已放入停止标记时返回false（数据未入队）
+         */
+        boolean offer(Task task) {
+            boolean interrupted = false;
+            try {
+                while (true)
+                {
+                    // 在锁内判断，入队成功的数据一定排在停止标记之前
+                    lock.lock();
+                    try {
+                        if (isStopped) return false;
+                        if (queue.offer(task, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) return true;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 放入停止标记（队列已满时等待）
+         */
+        void stop() {
+            boolean interrupted = false;
+            lock.lock();
+            try {
+                isStopped = true;
+                while (true)
+                {
+                    try {
+                        queue.put(SHUTDOWN);
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        /**
+         * 等待工作线程处理完停止标记之前的数据
+         */
+        void awaitExit() {
+            boolean interrupted = false;
+            while (true)
+            {
+                try {
+                    exited.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true)
+                {
+                    Task task;
+                    try {
+                        task = queue.take();
+                    } catch (InterruptedException e) {
+                        continue;
+                    }
+
+                    if (task == SHUTDOWN) break;
+                    try {
+                        onDispatch(task);
+                    } catch (Throwable e) {
+                        // 监听器抛出的Error等不能终止工作线程，否则该队列之后的数据都得不到处理
+                        e.printStackTrace();
+                    }
+                }
+            } finally {
+                exited.countDown();
+            }
+        }
+    }
+}
\ No newline at end of file
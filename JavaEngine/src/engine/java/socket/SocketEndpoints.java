@@ -0,0 +1,417 @@
+package engine.java.socket;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket服务器地址列表<p>
+ * 连接时解析所有域名（包括每个域名的多个A记录），按以往的成功率和连接时延排序，
+ * 依次间隔一段时间发起连接（前一个失败时立即发起下一个），最先握手成功的连接胜出，其余取消<br>
+ * 记录每个地址的连接时延和失败次数，用于之后的连接排序，可由多个连接共享
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class SocketEndpoints {
+
+    public static final long DEFAULT_STAGGER_DELAY  = 250;      // 毫秒
+
+    private static final long FAILURE_EXPIRE_NANOS  = TimeUnit.MINUTES.toNanos(1);
+
+    private static final int MAX_FAILURES           = 8;
+
+    private final ArrayList<InetSocketAddress> addresses
+    = new ArrayList<InetSocketAddress>();               // 未解析的地址
+
+    private final HashMap<InetSocketAddress, Score> scores
+    = new HashMap<InetSocketAddress, Score>();          // 已解析地址的评分
+
+    private long staggerNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_STAGGER_DELAY);
+
+    /**
+     * 地址评分
+     */
+    private static final class Score {
+
+        long srtt;                                      // 平滑连接时延（纳秒，0表示没有样本）
+
+        int failures;                                   // 连续失败次数
+
+        long lastFailureNanos;                          // 最后一次失败时间
+
+        int failures(long now) {
+            return failures > 0 && now - lastFailureNanos < FAILURE_EXPIRE_NANOS ? failures : 0;
+        }
+    }
+
+    public SocketEndpoints() {}
+
+    public SocketEndpoints(String host, int port) {
+        add(host, port);
+    }
+
+    /**
+     * @param addresses 地址列表，如导航配置的Socket服务器地址，格式为host:port，以逗号、分号或空白分隔，可带scheme前缀
+     */
+    public SocketEndpoints(String addresses) {
+        for (String address : addresses.split("[,;\\s]+"))
+        {
+            if (address.length() == 0) continue;
+            int index = address.indexOf("://");
+            if (index >= 0) address = address.substring(index + 3);
+            index = address.lastIndexOf(':');
+            if (index <= 0)
+            {
+                throw new IllegalArgumentException("Invalid socket address:" + address);
+            }
+
+            add(address.substring(0, index), Integer.parseInt(address.substring(index + 1)));
+        }
+    }
+
+    public synchronized SocketEndpoints add(String host, int port) {
+        addresses.add(InetSocketAddress.createUnresolved(host, port));
+        return this;
+    }
+
+    /**
+     * 设置发起下一个连接前的等待时间
+     */
+    public synchronized SocketEndpoints setStaggerDelay(long millis) {
+        staggerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+        return this;
+    }
+
+    /**
+     * 第一个地址（未解析，用于代理连接）
+     */
+    synchronized InetSocketAddress first() {
+        if (addresses.isEmpty())
+        {
+            throw new IllegalStateException("No socket address");
+        }
+
+        return addresses.get(0);
+    }
+
+    /**
+     * 解析所有地址并按评分排序
+     */
+    public List<InetSocketAddress> resolve() throws UnknownHostException {
+        ArrayList<InetSocketAddress> addresses;
+        synchronized (this) {
+            addresses = new ArrayList<InetSocketAddress>(this.addresses);
+        }
+
+        LinkedHashSet<InetSocketAddress> resolved = new LinkedHashSet<InetSocketAddress>();
+        UnknownHostException error = null;
+        for (InetSocketAddress address : addresses)
+        {
+            try {
+                for (InetAddress ip : InetAddress.getAllByName(address.getHostName()))
+                {
+                    resolved.add(new InetSocketAddress(ip, address.getPort()));
+                }
+            } catch (UnknownHostException e) {
+                error = e;
+            }
+        }
+
+        if (resolved.isEmpty())
+        {
+            throw error != null ? error : new UnknownHostException("No socket address");
+        }
+
+        ArrayList<InetSocketAddress> list = new ArrayList<InetSocketAddress>(resolved);
+        sort(list);
+        return list;
+    }
+
+    /**
+     * 排序：最近失败次数少的在前，其次是连接时延低的，没有样本的排在有样本的后面（稳定排序，保留DNS顺序）
+     */
+    private synchronized void sort(List<InetSocketAddress> list) {
+        final long now = System.nanoTime();
+        Collections.sort(list, new Comparator<InetSocketAddress>() {
+
+            @Override
+            public int compare(InetSocketAddress a, InetSocketAddress b) {
+                Score sa = scores.get(a);
+                Score sb = scores.get(b);
+                int fa = sa != null ? sa.failures(now) : 0;
+                int fb = sb != null ? sb.failures(now) : 0;
+                if (fa != fb) return fa < fb ? -1 : 1;
+                long la = sa != null && sa.srtt > 0 ? sa.srtt : Long.MAX_VALUE;
+                long lb = sb != null && sb.srtt > 0 ? sb.srtt : Long.MAX_VALUE;
+                return la < lb ? -1 : (la == lb ? 0 : 1);
+            }
+        });
+    }
+
+    private Score score(InetSocketAddress address) {
+        Score score = scores.get(address);
+        if (score == null) scores.put(address, score = new Score());
+        return score;
+    }
+
+    synchronized void onSuccess(InetSocketAddress address, long latencyNanos) {
+        Score score = score(address);
+        score.failures = 0;
+        latencyNanos = Math.max(1, latencyNanos);
+        score.srtt = score.srtt == 0 ? latencyNanos : score.srtt + (latencyNanos - score.srtt) / 8;
+    }
+
+    synchronized void onFailure(InetSocketAddress address) {
+        Score score = score(address);
+        score.failures = Math.min(score.failures(System.nanoTime()) + 1, MAX_FAILURES);
+        score.lastFailureNanos = System.nanoTime();
+    }
+
+    /**
+     * 平滑连接时延
+     *
+     * @return 毫秒，没有样本时返回-1
+     */
+    public synchronized long getLatency(InetSocketAddress address) {
+        Score score = scores.get(address);
+        return score != null && score.srtt > 0 ? TimeUnit.NANOSECONDS.toMillis(score.srtt) : -1;
+    }
+
+    /**
+     * 最近连续失败次数
+     */
+    public synchronized int getFailures(InetSocketAddress address) {
+        Score score = scores.get(address);
+        return score != null ? score.failures(System.nanoTime()) : 0;
+    }
+
+    /**
+     * 连接建立后的握手
+     */
+    interface Handshake {
+
+        /**
+         * 在连接线程中调用（多个地址同时进行）
+         *
+         * @return 握手结果（如数据密钥）
+         */
+        Object handshake(Socket socket) throws Exception;
+    }
+
+    /**
+     * 已建立并握手成功的连接
+     */
+    static final class Attempt {
+
+        final InetSocketAddress address;
+
+        final Socket socket;
+
+        Object result;                                  // 握手结果
+
+        Attempt(InetSocketAddress address, Socket socket) {
+            this.address = address;
+            this.socket = socket;
+        }
+    }
+
+    /**
+     * 开始连接竞争
+     *
+     * @param channel 是否创建支持多路复用的Socket
+     * @param factory 创建连接线程
+     */
+    Race race(boolean channel, int timeout, Handshake handshake, ThreadFactory factory)
+            throws UnknownHostException {
+        long staggerNanos;
+        synchronized (this) {
+            staggerNanos = this.staggerNanos;
+        }
+
+        return new Race(resolve(), channel, timeout, staggerNanos, handshake, factory);
+    }
+
+    /**
+     * 一次连接竞争，由连接线程调用{@link #next()}取出最先握手成功的连接
+     */
+    final class Race {
+
+        private final List<InetSocketAddress> candidates;
+
+        private final boolean channel;
+
+        private final int timeout;
+
+        private final long staggerNanos;
+
+        private final Handshake handshake;
+
+        private final ThreadFactory factory;
+
+        private final LinkedBlockingQueue<Object> results
+        = new LinkedBlockingQueue<Object>();            // 握手成功的连接或失败的异常
+
+        private final HashSet<Socket> sockets = new HashSet<Socket>();  // 进行中的连接
+
+        private int started;                            // 已发起的连接数
+
+        private int finished;                           // 已取出的结果数
+
+        private boolean isCancelled;
+
+        Race(List<InetSocketAddress> candidates, boolean channel, int timeout, long staggerNanos,
+                Handshake handshake, ThreadFactory factory) {
+            this.candidates = candidates;
+            this.channel = channel;
+            this.timeout = timeout;
+            this.staggerNanos = staggerNanos;
+            this.handshake = handshake;
+            this.factory = factory;
+        }
+
+        /**
+         * 取出最先握手成功的连接，之后须调用{@link #cancel()}取消其余的连接
+         *
+         * @throws IOException 所有地址都连接失败
+         */
+        public Attempt next() throws IOException {
+            IOException error = null;
+            while (true)
+            {
+                synchronized (this) {
+                    if (isCancelled)
+                    {
+                        throw new ConnectException("连接已取消");
+                    }
+                }
+
+                if (started == finished)
+                {
+                    if (started == candidates.size())
+                    {
+                        throw error != null ? error : new ConnectException("没有可用的服务器地址");
+                    }
+
+                    start();
+                }
+
+                Object result;
+                try {
+                    result = started < candidates.size()
+                            ? results.poll(staggerNanos, TimeUnit.NANOSECONDS) : results.take();
+                } catch (InterruptedException e) {
+                    cancel();
+                    throw new InterruptedIOException();
+                }
+
+                if (result == null)
+                {
+                    // 等待超时，发起下一个连接
+                    start();
+                    continue;
+                }
+
+                finished++;
+                if (result instanceof Attempt)
+                {
+                    Attempt attempt = (Attempt) result;
+                    synchronized (this) {
+                        if (sockets.remove(attempt.socket))
+                        {
+                            return attempt;
+                        }
+                    }
+
+                    // 已取消
+                    continue;
+                }
+
+                error = (IOException) result;
+                // 前一个失败时立即发起下一个
+                if (started < candidates.size()) start();
+            }
+        }
+
+        private void start() {
+            final InetSocketAddress address = candidates.get(started++);
+            factory.newThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    connect(address);
+                }
+            }).start();
+        }
+
+        private void connect(InetSocketAddress address) {
+            Socket socket = null;
+            try {
+                socket = channel ? SocketChannel.open().socket() : new Socket();
+                synchronized (this) {
+                    if (isCancelled)
+                    {
+                        throw new ConnectException("连接已取消");
+                    }
+
+                    sockets.add(socket);
+                }
+
+                long start = System.nanoTime();
+                socket.connect(address, timeout);
+                Attempt attempt = new Attempt(address, socket);
+                if (handshake != null) attempt.result = handshake.handshake(socket);
+                onSuccess(address, System.nanoTime() - start);
+                results.add(attempt);
+            } catch (Exception e) {
+                boolean isCancelled;
+                synchronized (this) {
+                    isCancelled = this.isCancelled;
+                    sockets.remove(socket);
+                }
+
+                if (socket != null) close(socket);
+                if (!isCancelled) onFailure(address);
+                results.add(e instanceof IOException ? e : new IOException(e));
+            }
+        }
+
+        /**
+         * 取消其余的连接
+         */
+        public void cancel() {
+            ArrayList<Socket> list;
+            synchronized (this) {
+                isCancelled = true;
+                list = new ArrayList<Socket>(sockets);
+                sockets.clear();
+            }
+
+            for (Socket socket : list)
+            {
+                close(socket);
+            }
+        }
+
+        private void close(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {}
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,122 @@
+package engine.java.socket;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 单个Selector线程，负责驱动注册在其上的所有Socket通道
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class SocketEventLoop implements Runnable {
+
+    /**
+     * 通道就绪事件处理
+     */
+    interface ChannelHandler {
+
+        void onSelected(SelectionKey key);
+    }
+
+    private final Selector selector;
+
+    private final ConcurrentLinkedQueue<Runnable> tasks
+    = new ConcurrentLinkedQueue<Runnable>();            // 待执行任务
+
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    private final Thread thread;
+
+    private volatile boolean isShutdown;
+
+    public SocketEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 在事件循环线程中执行任务
+     */
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true))
+        {
+            selector.wakeup();
+        }
+    }
+
+    public void shutdown() {
+        isShutdown = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (!isShutdown)
+        {
+            try {
+                selector.select();
+                wakenUp.set(false);
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext())
+                {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    if (key.isValid())
+                    {
+                        ((ChannelHandler) key.attachment()).onSelected(key);
+                    }
+                }
+
+                runTasks();
+            } catch (Throwable e) {
+                // 单个通道异常不能影响整个事件循环
+                e.printStackTrace();
+            }
+        }
+
+        closeAll();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+        {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys())
+        {
+            try {
+                key.channel().close();
+            } catch (IOException e) {}
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {}
+    }
+}
\ No newline at end of file
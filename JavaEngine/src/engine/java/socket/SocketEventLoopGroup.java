@@ -0,0 +1,77 @@
+package engine.java.socket;
+
+import engine.java.util.extra.MyThreadFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Socket多路复用事件循环组<p>
+ * 功能：多个{@link SocketConnector}共享固定数量的Selector线程，线程数不随连接数增长
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class SocketEventLoopGroup {
+
+    private final SocketEventLoop[] loops;              // 事件循环
+
+    private final AtomicInteger index = new AtomicInteger();
+
+    private final ExecutorService connectExecutor;      // 建立连接与握手（阻塞操作）
+
+    public SocketEventLoopGroup() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param nThreads 事件循环线程数
+     */
+    public SocketEventLoopGroup(int nThreads) {
+        if (nThreads <= 0)
+        {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+
+        loops = new SocketEventLoop[nThreads];
+        try {
+            for (int i = 0; i < nThreads; i++)
+            {
+                loops[i] = new SocketEventLoop("Socket事件循环-" + (i + 1));
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw new IllegalStateException("打开Selector失败", e);
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new MyThreadFactory("Socket网络连接"));
+        executor.allowCoreThreadTimeOut(true);
+        connectExecutor = executor;
+    }
+
+    SocketEventLoop next() {
+        return loops[(index.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    ExecutorService connectExecutor() {
+        return connectExecutor;
+    }
+
+    /**
+     * 关闭所有事件循环（已注册的连接将被断开）
+     */
+    public void shutdown() {
+        for (SocketEventLoop loop : loops)
+        {
+            if (loop != null) loop.shutdown();
+        }
+
+        if (connectExecutor != null) connectExecutor.shutdownNow();
+    }
+}
\ No newline at end of file
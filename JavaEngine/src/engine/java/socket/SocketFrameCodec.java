@@ -0,0 +1,120 @@
+package engine.java.socket;
+
+import engine.java.socket.SocketConnector.SocketReceiver;
+import engine.java.socket.util.SocketUtil;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 默认的数据包格式：变长整数（每字节7位，低位在前）表示长度 + 数据<p>
+ * 长度小于128时与单字节长度格式相同<br>
+ * 解析时只为数据分配内存，阻塞模式下由连接的接收缓冲区处理分段读取，
+ * 多路复用模式下数据不完整时由事件循环等待后续数据重新解析
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class SocketFrameCodec implements SocketReceiver {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+    private final SocketConnector connector;            // 用于获取数据密钥，可为null
+
+    private final int maxFrameSize;                     // 数据包最大长度
+
+    public SocketFrameCodec(SocketConnector connector) {
+        this(connector, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param connector 握手后用连接的数据密钥解密，不需要时传null
+     * @param maxFrameSize 超过此长度视为数据错误，断开连接
+     */
+    public SocketFrameCodec(SocketConnector connector, int maxFrameSize) {
+        if (maxFrameSize <= 0)
+        {
+            throw new IllegalArgumentException("maxFrameSize must be positive");
+        }
+
+        this.connector = connector;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    public Object parseData(InputStream in) throws IOException {
+        int length = readLength(in);
+        if (length > maxFrameSize)
+        {
+            throw new IOException("数据包过大:" + length);
+        }
+
+        if (in instanceof SocketChannelSession.BufferInputStream)
+        {
+            // 多路复用模式下数据不完整时不分配内存，等待后续数据重新解析
+            ((SocketChannelSession.BufferInputStream) in).require(length);
+        }
+
+        byte[] data = new byte[length];
+        for (int n = 0, len; n < length; n += len)
+        {
+            if ((len = in.read(data, n, length - n)) < 0)
+            {
+                throw new EOFException("连接已断开");
+            }
+        }
+
+        SocketUtil.Crypto crypto = connector != null ? connector.getCrypto() : null;
+        if (crypto != null) crypto.crypt(data);
+        return data;
+    }
+
+    private static int readLength(InputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.read();
+            if (b < 0)
+            {
+                throw new EOFException("连接已断开");
+            }
+
+            // 第5个字节只能有低3位，否则超出int范围
+            if (shift == 28 && b > 0x07) break;
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return length;
+            }
+        }
+
+        throw new IOException("数据包长度错误");
+    }
+
+    /**
+     * 写入数据包（不加密），用于实现{@link SocketConnector.SocketData#wrapData(OutputStream)}
+     */
+    public static void writeFrame(OutputStream out, byte[] data, int offset, int length)
+            throws IOException {
+        int v = length;
+        while ((v & ~0x7f) != 0)
+        {
+            out.write(v & 0x7f | 0x80);
+            v >>>= 7;
+        }
+
+        out.write(v);
+        out.write(data, offset, length);
+    }
+
+    /**
+     * 数据包写入后的长度，用于实现{@link SocketConnector.SizedData#length()}
+     */
+    public static int frameLength(int length) {
+        int n = 1;
+        for (int v = length >>> 7; v != 0; v >>>= 7) n++;
+        return n + length;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,205 @@
+package engine.java.socket;
+
+import engine.java.socket.SocketConnector.SendHandle;
+import engine.java.util.extra.HashedWheelTimer.Timeout;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 请求应答结果<p>
+ * 收到相同消息ID的应答时完成，超时、连接关闭或发送失败时以异常结束
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class SocketFuture implements Future<Object> {
+
+    private static final int PENDING    = 0;            // 等待应答
+
+    private static final int SUCCEEDED  = 1;            // 已收到应答
+
+    private static final int FAILED     = 2;            // 失败
+
+    private static final int CANCELLED  = 3;            // 已取消
+
+    private final SocketConnector connector;
+
+    private final int msgId;                            // 消息ID
+
+    private int state;
+
+    private Object result;
+
+    private Throwable exception;
+
+    private Listener listener;
+
+    private volatile Timeout timeout;                   // 超时任务
+
+    private volatile SendHandle handle;                 // 请求发送句柄
+
+    /**
+     * 结果监听器（在完成的线程中回调，不可阻塞）
+     */
+    public interface Listener {
+
+        void onComplete(SocketFuture future);
+    }
+
+    SocketFuture(SocketConnector connector, int msgId) {
+        this.connector = connector;
+        this.msgId = msgId;
+    }
+
+    public int getMsgId() {
+        return msgId;
+    }
+
+    /**
+     * 设置超时任务（在此之前已完成时立即取消）
+     */
+    void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+        if (isDone()) timeout.cancel();
+    }
+
+    /**
+     * 设置请求发送句柄（在此之前已取消时一并取消发送）
+     */
+    void setHandle(SendHandle handle) {
+        this.handle = handle;
+        if (isCancelled()) handle.cancel();
+    }
+
+    /**
+     * 设置结果监听器，已完成时立即回调
+     */
+    public SocketFuture setListener(Listener listener) {
+        boolean isDone;
+        synchronized (this) {
+            this.listener = listener;
+            isDone = state != PENDING;
+        }
+
+        if (isDone && listener != null) listener.onComplete(this);
+        return this;
+    }
+
+    boolean complete(Object result) {
+        synchronized (this) {
+            if (state != PENDING) return false;
+            this.result = result;
+            state = SUCCEEDED;
+            notifyAll();
+        }
+
+        onDone();
+        return true;
+    }
+
+    boolean fail(Throwable exception) {
+        synchronized (this) {
+            if (state != PENDING) return false;
+            this.exception = exception;
+            state = FAILED;
+            notifyAll();
+        }
+
+        onDone();
+        return true;
+    }
+
+    private void onDone() {
+        Timeout timeout = this.timeout;
+        if (timeout != null) timeout.cancel();
+        Listener listener;
+        synchronized (this) {
+            listener = this.listener;
+        }
+
+        if (listener != null) listener.onComplete(this);
+    }
+
+    /**
+     * 取消等待应答，请求还未发出时一并取消发送
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (state != PENDING) return false;
+            state = CANCELLED;
+            notifyAll();
+        }
+
+        connector.removePending(this);
+        SendHandle handle = this.handle;
+        if (handle != null) handle.cancel();
+        onDone();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != PENDING;
+    }
+
+    public synchronized boolean isSuccess() {
+        return state == SUCCEEDED;
+    }
+
+    /**
+     * @return 失败原因，未失败时返回null
+     */
+    public synchronized Throwable getException() {
+        return exception;
+    }
+
+    @Override
+    public synchronized Object get() throws InterruptedException, ExecutionException {
+        while (state == PENDING)
+        {
+            wait();
+        }
+
+        return getResult();
+    }
+
+    @Override
+    public synchronized Object get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        while (state == PENDING)
+        {
+            if (nanos <= 0)
+            {
+                throw new TimeoutException();
+            }
+
+            TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            nanos = deadline - System.nanoTime();
+        }
+
+        return getResult();
+    }
+
+    private Object getResult() throws ExecutionException {
+        switch (state) {
+            case SUCCEEDED:
+                return result;
+            case CANCELLED:
+                throw new CancellationException();
+            default:
+                throw new ExecutionException(exception);
+        }
+    }
+}
\ No newline at end of file
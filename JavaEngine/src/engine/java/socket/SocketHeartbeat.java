@@ -0,0 +1,205 @@
+package engine.java.socket;
+
+import engine.java.socket.SocketConnector.HeartbeatHandler;
+import engine.java.util.extra.HashedWheelTimer.Timeout;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 心跳检测与往返时延估算<p>
+ * 由所有连接共享的时间轮定时器驱动，一个间隔内没有收到任何数据时才发送心跳，
+ * 连续多次心跳没有应答则认为对方已失效<br>
+ * 往返时延按RFC 6298估算平滑值与抖动，用于计算自适应的请求超时
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class SocketHeartbeat {
+
+    static final long INITIAL_TIMEOUT       = 3000;     // 没有样本时的超时时间（毫秒）
+
+    private static final long MIN_TIMEOUT   = 1000;
+
+    private static final long MAX_TIMEOUT   = 60000;
+
+    private final SocketConnector connector;
+
+    private final HeartbeatHandler handler;
+
+    private final long intervalNanos;                   // 心跳间隔
+
+    private final int maxMissed;                        // 最多允许连续丢失的心跳数
+
+    private volatile long lastReadNanos;                // 最后一次收到数据的时间
+
+    private int generation;                             // 每次建立连接递增
+
+    private Ticker ticker;
+
+    private int pingSeq;                                // 心跳序号
+
+    private long pingNanos;                             // 未应答心跳的发送时间（0表示没有）
+
+    private int missed;                                 // 连续丢失的心跳数
+
+    private long srtt;                                  // 平滑往返时延（0表示还没有样本）
+
+    private long rttvar;                                // 往返时延抖动
+
+    public SocketHeartbeat(SocketConnector connector, HeartbeatHandler handler,
+            long intervalMillis, int maxMissed) {
+        this.connector = connector;
+        this.handler = handler;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.maxMissed = maxMissed;
+    }
+
+    /**
+     * 连接已建立
+     */
+    public synchronized void start() {
+        stop();
+        generation++;
+        pingNanos = 0;
+        missed = 0;
+        lastReadNanos = System.nanoTime();
+        (ticker = new Ticker(generation)).schedule();
+    }
+
+    /**
+     * 连接已断开
+     */
+    public synchronized void stop() {
+        if (ticker != null)
+        {
+            ticker.stop();
+            ticker = null;
+        }
+    }
+
+    public synchronized boolean isCurrent(int generation) {
+        return ticker != null && this.generation == generation;
+    }
+
+    /**
+     * 收到数据（任意数据都表明连接有效）
+     */
+    public void onRead() {
+        lastReadNanos = System.nanoTime();
+    }
+
+    /**
+     * @return 是否为心跳应答
+     */
+    public boolean onReceive(Object data) {
+        int seq = handler.resolvePong(data);
+        if (seq < 0)
+        {
+            return false;
+        }
+
+        synchronized (this) {
+            if (pingNanos != 0 && seq == pingSeq)
+            {
+                onSample(System.nanoTime() - pingNanos);
+                pingNanos = 0;
+            }
+
+            missed = 0;
+        }
+
+        return true;
+    }
+
+    private void onSample(long rtt) {
+        if (srtt == 0)
+        {
+            srtt = Math.max(1, rtt);
+            rttvar = rtt / 2;
+        }
+        else
+        {
+            rttvar += (Math.abs(srtt - rtt) - rttvar) / 4;
+            srtt += (rtt - srtt) / 8;
+        }
+    }
+
+    private synchronized void tick(int generation) {
+        if (this.generation != generation)
+        {
+            return;
+        }
+
+        if (System.nanoTime() - lastReadNanos < intervalNanos)
+        {
+            // 连接有数据往来，无需心跳
+            missed = 0;
+            return;
+        }
+
+        if (pingNanos != 0 && ++missed >= maxMissed)
+        {
+            connector.onHeartbeatTimeout(generation);
+            return;
+        }
+
+        pingNanos = System.nanoTime();
+        connector.sendHeartbeat(handler.newPing(pingSeq = (pingSeq + 1) & Integer.MAX_VALUE));
+    }
+
+    /**
+     * @return 平滑往返时延（毫秒），没有样本时返回-1
+     */
+    public synchronized long getRtt() {
+        return srtt == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(srtt);
+    }
+
+    /**
+     * @return 往返时延抖动（毫秒），没有样本时返回-1
+     */
+    public synchronized long getRttVar() {
+        return srtt == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(rttvar);
+    }
+
+    /**
+     * 自适应超时时间（平滑往返时延 + 4倍抖动）
+     */
+    public synchronized long getTimeout() {
+        if (srtt == 0)
+        {
+            return INITIAL_TIMEOUT;
+        }
+
+        long timeout = TimeUnit.NANOSECONDS.toMillis(srtt + 4 * rttvar);
+        return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+    }
+
+    private final class Ticker implements Runnable {
+
+        private final int generation;
+
+        private volatile boolean isStopped;
+
+        private Timeout timeout;
+
+        Ticker(int generation) {
+            this.generation = generation;
+        }
+
+        void schedule() {
+            timeout = SocketConnector.timer.newTimeout(this, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void stop() {
+            isStopped = true;
+            timeout.cancel();
+        }
+
+        @Override
+        public void run() {
+            if (isStopped) return;
+            tick(generation);
+            if (!isStopped) schedule();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+package engine.java.socket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 阻塞模式的接收缓冲区<p>
+ * 使用缓存池中的分块减少读取系统调用，由接收线程独占，结束时调用{@link #release()}归还分块
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class SocketReadBuffer extends InputStream {
+
+    private final InputStream in;
+
+    private ByteBuffer chunk;
+
+    private final byte[] buf;
+
+    private int pos;                                    // 读取位置
+
+    private int count;                                  // 数据结束位置
+
+    public SocketReadBuffer(InputStream in) {
+        this.in = in;
+        chunk = SocketWriteBuffer.obtain();
+        buf = chunk.array();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == count && !fill())
+        {
+            return -1;
+        }
+
+        return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (pos == count)
+        {
+            if (len >= buf.length)
+            {
+                // 大数据直接读取，不经过缓冲区
+                return in.read(b, off, len);
+            }
+
+            if (!fill()) return -1;
+        }
+
+        len = Math.min(len, count - pos);
+        System.arraycopy(buf, pos, b, off, len);
+        pos += len;
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) return 0;
+        if (pos == count) return in.skip(n);
+        n = Math.min(n, count - pos);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return count - pos + in.available();
+    }
+
+    private boolean fill() throws IOException {
+        if (chunk == null)
+        {
+            throw new IOException("接收缓冲区已释放");
+        }
+
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0)
+        {
+            return false;
+        }
+
+        pos = 0;
+        count = n;
+        return true;
+    }
+
+    /**
+     * 归还分块（不关闭输入流）
+     */
+    public void release() {
+        if (chunk != null)
+        {
+            SocketWriteBuffer.recycle(chunk);
+            chunk = null;
+            pos = count = 0;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,131 @@
+package engine.java.socket;
+
+import engine.java.socket.SocketConnector.SocketData;
+import engine.java.util.extra.IntHashMap;
+
+/**
+ * 重传缓冲区：保存已发出但未收到应答的数据包，重连后按发送顺序重发<p>
+ * 以消息ID为键，相同消息ID只保留最后一次发送的数据包
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class SocketRetransmitBuffer {
+
+    private static final class Entry {
+
+        final int msgId;
+
+        SocketData data;
+
+        Entry prev, next;
+
+        Entry(int msgId, SocketData data) {
+            this.msgId = msgId;
+            this.data = data;
+        }
+    }
+
+    private final IntHashMap<Entry> map = new IntHashMap<Entry>();
+
+    private Entry head, tail;                           // 按发送顺序排列
+
+    private final int maxFrames;                        // 超出时丢弃最早的数据包
+
+    public SocketRetransmitBuffer(int maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * 数据包已发出
+     */
+    public synchronized void add(int msgId, SocketData data) {
+        Entry entry = map.get(msgId);
+        if (entry != null)
+        {
+            unlink(entry);
+            entry.data = data;
+        }
+        else
+        {
+            map.put(msgId, entry = new Entry(msgId, data));
+            if (map.size() > maxFrames)
+            {
+                map.remove(head.msgId);
+                unlink(head);
+            }
+        }
+
+        if (tail == null)
+        {
+            head = tail = entry;
+        }
+        else
+        {
+            tail.next = entry;
+            entry.prev = tail;
+            tail = entry;
+        }
+    }
+
+    /**
+     * 收到应答
+     *
+     * @return 是否有对应的数据包
+     */
+    public synchronized boolean ack(int msgId) {
+        Entry entry = map.remove(msgId);
+        if (entry != null)
+        {
+            unlink(entry);
+            return true;
+        }
+
+        return false;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev == null)
+        {
+            head = entry.next;
+        }
+        else
+        {
+            entry.prev.next = entry.next;
+        }
+
+        if (entry.next == null)
+        {
+            tail = entry.prev;
+        }
+        else
+        {
+            entry.next.prev = entry.prev;
+        }
+
+        entry.prev = entry.next = null;
+    }
+
+    /**
+     * 按发送顺序获取所有未应答的数据包
+     */
+    public synchronized SocketData[] toArray() {
+        SocketData[] array = new SocketData[map.size()];
+        int i = 0;
+        for (Entry entry = head; entry != null; entry = entry.next)
+        {
+            array[i++] = entry.data;
+        }
+
+        return array;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        head = tail = null;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package engine.java.socket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 批量发送：一次取出多个数据包序列化到同一缓冲区，合并为一次写入
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class SocketSendBatch {
+
+    private static final long LINGER_POLL_NANOS = 20 * 1000;
+
+    private final ArrayList<SocketSendQueue.Node> nodes = new ArrayList<SocketSendQueue.Node>();
+
+    final SocketWriteBuffer buffer = new SocketWriteBuffer();
+
+    /**
+     * 从first开始收集数据直到队列为空或达到发送上限
+     *
+     * @param lingerNanos 未达到上限时等待后续数据的时间
+     */
+    public void fill(SocketSendQueue queue, SocketSendQueue.Node first,
+            int maxBytes, int maxFrames, long lingerNanos) throws IOException {
+        SocketSendQueue.Node node = first;
+        long deadline = 0;
+        while (true)
+        {
+            nodes.add(node);
+            node.getData().wrapData(buffer);
+            if (nodes.size() >= maxFrames || buffer.size() >= maxBytes)
+            {
+                break;
+            }
+
+            SocketSendQueue.Node next;
+            while ((next = queue.claimNext()) == null && lingerNanos > 0)
+            {
+                long now = System.nanoTime();
+                if (deadline == 0) deadline = now + lingerNanos;
+                if (now >= deadline) break;
+                LockSupport.parkNanos(Math.min(deadline - now, LINGER_POLL_NANOS));
+            }
+
+            if (next == null) break;
+            node = next;
+        }
+    }
+
+    public int frames() {
+        return nodes.size();
+    }
+
+    public SocketConnector.SocketData getData(int index) {
+        return nodes.get(index).getData();
+    }
+
+    /**
+     * 发送成功
+     */
+    public void commit(SocketSendQueue queue, SocketSendStats stats) {
+        stats.onFlush(nodes.size(), buffer.size());
+        for (int i = 0, n = nodes.size(); i < n; i++)
+        {
+            queue.commit(nodes.get(i));
+        }
+
+        clear();
+    }
+
+    /**
+     * 发送失败，数据保留在队列中等待重发
+     */
+    public void release(SocketSendQueue queue) {
+        for (int i = 0, n = nodes.size(); i < n; i++)
+        {
+            queue.release(nodes.get(i));
+        }
+
+        clear();
+    }
+
+    private void clear() {
+        nodes.clear();
+        buffer.reset();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,353 @@
+package engine.java.socket;
+
+import engine.java.socket.SocketConnector.DropFilter;
+import engine.java.socket.SocketConnector.SendHandle;
+import engine.java.socket.SocketConnector.SocketData;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Socket发送队列（多生产者单消费者，无锁）<p>
+ * 生产者通过一次原子交换入队，消费者独占队首；取消只修改节点状态，由消费者顺带清理<br>
+ * 队列分为多个优先级通道，消费者按权重轮询（Deficit Round Robin），低优先级通道的等待有上限
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class SocketSendQueue {
+
+    private static final int QUEUED     = 0;            // 排队中
+
+    private static final int SENDING    = 1;            // 发送中（不可取消）
+
+    private static final int SENT       = 2;            // 已发送
+
+    private static final int CANCELLED  = 3;            // 已取消
+
+    static final class Node implements SendHandle {
+
+        private static final AtomicIntegerFieldUpdater<Node> STATE
+        = AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+
+        final SocketSendQueue queue;
+
+        final int priority;                             // 所在通道
+
+        final int length;                               // 数据长度（未知为0）
+
+        SocketData data;
+
+        volatile Node next;
+
+        volatile int state;
+
+        Node(SocketSendQueue queue, SocketData data, int priority, int length) {
+            this.queue = queue;
+            this.data = data;
+            this.priority = priority;
+            this.length = length;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, QUEUED, CANCELLED))
+            {
+                queue.count.decrementAndGet();
+                queue.bytes.addAndGet(-length);
+                Runnable listener = queue.cancelListener;
+                if (listener != null) listener.run();
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * 未入队即被拒绝
+         */
+        void reject() {
+            state = CANCELLED;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            return state >= SENT;
+        }
+
+        public SocketData getData() {
+            return data;
+        }
+    }
+
+    /**
+     * 优先级通道
+     */
+    private static final class Lane {
+
+        private static final AtomicReferenceFieldUpdater<Lane, Node> TAIL
+        = AtomicReferenceFieldUpdater.newUpdater(Lane.class, Node.class, "tail");
+
+        volatile Node head;                             // 哨兵节点（仅消费者修改）
+
+        volatile Node tail;
+
+        Node cursor;                                    // 本批次最后claim的节点
+
+        Lane(Node stub) {
+            head = tail = stub;
+        }
+
+        void offer(Node node) {
+            Node prev = TAIL.getAndSet(this, node);
+            prev.next = node;
+        }
+    }
+
+    private final Lane[] lanes;
+
+    private final int[] weights;                        // 各通道每轮可发送的数据包数
+
+    private int current;                                // 当前轮询的通道
+
+    private int deficit;                                // 当前通道剩余配额
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private volatile Runnable cancelListener;           // 数据被取消或丢弃后回调
+
+    /**
+     * @param weights 各通道权重，下标越小优先级越高
+     */
+    public SocketSendQueue(int... weights) {
+        int n = weights.length;
+        lanes = new Lane[n];
+        this.weights = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            lanes[i] = new Lane(new Node(this, null, i, 0));
+        }
+
+        setWeights(weights);
+        deficit = this.weights[0];
+    }
+
+    /**
+     * 设置数据被取消或丢弃后的回调（在取消的线程中执行）
+     */
+    public void setCancelListener(Runnable listener) {
+        cancelListener = listener;
+    }
+
+    public int lanes() {
+        return lanes.length;
+    }
+
+    public void setWeights(int... weights) {
+        for (int i = 0; i < this.weights.length; i++)
+        {
+            this.weights[i] = Math.max(1, i < weights.length ? weights[i] : 1);
+        }
+    }
+
+    /**
+     * 入队（任意线程）
+     *
+     * @return 入队前的数据量
+     */
+    public int offer(Node node) {
+        lanes[node.priority].offer(node);
+        bytes.addAndGet(node.length);
+        return count.getAndIncrement();
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * 排队数据的总长度（只统计已知长度的数据）
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * 开始新一批发送，获取下一个数据并标记为发送中（仅消费者调用）
+     *
+     * @return 队列为空时返回null
+     */
+    public Node claim() {
+        for (Lane lane : lanes)
+        {
+            lane.cursor = null;
+        }
+
+        return claimNext();
+    }
+
+    /**
+     * 在本批次中继续获取下一个数据（仅消费者调用）
+     *
+     * @return 没有更多数据时返回null
+     */
+    public Node claimNext() {
+        int empty = 0;
+        while (empty < lanes.length)
+        {
+            if (deficit > 0)
+            {
+                Lane lane = lanes[current];
+                Node node = claim(lane);
+                if (node != null)
+                {
+                    lane.cursor = node;
+                    deficit--;
+                    return node;
+                }
+
+                empty++;
+            }
+
+            // 切换到下一个通道
+            if (++current == lanes.length) current = 0;
+            deficit = weights[current];
+        }
+
+        return null;
+    }
+
+    private Node claim(Lane lane) {
+        Node node;
+        if (lane.cursor != null)
+        {
+            // 本批次已从该通道取过数据，不再等待未完成的链接
+            for (node = lane.cursor.next; node != null; node = node.next)
+            {
+                if (Node.STATE.compareAndSet(node, QUEUED, SENDING))
+                {
+                    return node;
+                }
+            }
+
+            return null;
+        }
+
+        while (true)
+        {
+            if ((node = lane.head.next) == null)
+            {
+                if (lane.tail != lane.head)
+                {
+                    // 生产者尚未完成链接
+                    Thread.yield();
+                    continue;
+                }
+
+                return null;
+            }
+
+            if (Node.STATE.compareAndSet(node, QUEUED, SENDING))
+            {
+                return node;
+            }
+
+            if (node.state == CANCELLED)
+            {
+                advance(lane, node);
+            }
+            else
+            {
+                // 仍在发送中（上一批次未完成）
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 数据发送成功，移出队列（仅消费者调用，同一通道须按claim顺序提交）
+     */
+    public void commit(Node node) {
+        if (node.state == SENDING)
+        {
+            node.state = SENT;
+            count.decrementAndGet();
+            bytes.addAndGet(-node.length);
+        }
+
+        advance(lanes[node.priority], node);
+    }
+
+    /**
+     * 数据发送失败，保留在队首等待重发（仅消费者调用）
+     */
+    public void release(Node node) {
+        Node.STATE.compareAndSet(node, SENDING, QUEUED);
+    }
+
+    private static void advance(Lane lane, Node node) {
+        node.data = null;
+        lane.head = node;
+    }
+
+    /**
+     * 取消指定数据（需遍历队列）
+     */
+    public boolean cancel(SocketData data) {
+        for (Lane lane : lanes)
+        {
+            for (Node node = lane.head.next; node != null; node = node.next)
+            {
+                SocketData d = node.data;
+                if (d != null && d.equals(data) && node.cancel())
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 丢弃最早排队的数据（任意线程），优先丢弃低优先级通道的数据
+     *
+     * @param filter 为null时丢弃第一个可取消的数据，否则丢弃第一个符合条件的数据
+     * @return 是否有数据被丢弃
+     */
+    public boolean drop(DropFilter filter) {
+        for (int i = lanes.length - 1; i >= 0; i--)
+        {
+            for (Node node = lanes[i].head.next; node != null; node = node.next)
+            {
+                SocketData d = node.data;
+                if (node.state == QUEUED && d != null
+                && (filter == null || filter.canDrop(d)) && node.cancel())
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    public void clear() {
+        for (Lane lane : lanes)
+        {
+            for (Node node = lane.head.next; node != null; node = node.next)
+            {
+                node.cancel();
+            }
+        }
+    }
+}
\ No newline at end of file
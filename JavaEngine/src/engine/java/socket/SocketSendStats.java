@@ -0,0 +1,76 @@
+package engine.java.socket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Socket发送统计，用于调整批量发送参数
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class SocketSendStats {
+
+    private final AtomicLong frames = new AtomicLong();         // 发送数据包数
+
+    private final AtomicLong flushes = new AtomicLong();        // 写入次数
+
+    private final AtomicLong bytes = new AtomicLong();          // 发送字节数
+
+    private volatile int maxFramesPerFlush;                     // 单次写入最多数据包数
+
+    SocketSendStats() {}
+
+    void onFlush(int frameCount, int byteCount) {
+        frames.addAndGet(frameCount);
+        bytes.addAndGet(byteCount);
+        flushes.incrementAndGet();
+        if (frameCount > maxFramesPerFlush) maxFramesPerFlush = frameCount;
+    }
+
+    public long getFrames() {
+        return frames.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * 平均每次写入的数据包数
+     */
+    public double getFramesPerFlush() {
+        long n = flushes.get();
+        return n == 0 ? 0 : (double) frames.get() / n;
+    }
+
+    public int getMaxFramesPerFlush() {
+        return maxFramesPerFlush;
+    }
+
+    public void reset() {
+        frames.set(0);
+        flushes.set(0);
+        bytes.set(0);
+        maxFramesPerFlush = 0;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+        .append("[frames=")
+        .append(getFrames())
+        .append(", flushes=")
+        .append(getFlushes())
+        .append(", bytes=")
+        .append(getBytes())
+        .append(", framesPerFlush=")
+        .append(String.format("%.2f", getFramesPerFlush()))
+        .append(", maxFramesPerFlush=")
+        .append(getMaxFramesPerFlush())
+        .append("]").toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,154 @@
+package engine.java.socket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量发送缓冲区<p>
+ * 由固定大小的分块组成（分块在全局池中复用），写入时一次性提交所有分块
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class SocketWriteBuffer extends OutputStream {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private static final int MAX_POOLED_CHUNKS = 256;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool
+    = new ConcurrentLinkedQueue<ByteBuffer>();          // 分块缓存池
+
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+    private ByteBuffer current;
+
+    private int size;
+
+    private ByteBuffer[] array = new ByteBuffer[0];     // 聚集写缓存
+
+    /**
+     * 从缓存池获取分块（接收缓冲区也使用）
+     */
+    static ByteBuffer obtain() {
+        ByteBuffer chunk = pool.poll();
+        if (chunk == null)
+        {
+            return ByteBuffer.allocate(CHUNK_SIZE);
+        }
+
+        pooled.decrementAndGet();
+        return chunk;
+    }
+
+    static void recycle(ByteBuffer chunk) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_CHUNKS)
+        {
+            chunk.clear();
+            pool.offer(chunk);
+        }
+        else
+        {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureWritable().put((byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        size += len;
+        while (len > 0)
+        {
+            ByteBuffer chunk = ensureWritable();
+            int n = Math.min(len, chunk.remaining());
+            chunk.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    private ByteBuffer ensureWritable() {
+        if (current == null || !current.hasRemaining())
+        {
+            chunks.add(current = obtain());
+        }
+
+        return current;
+    }
+
+    /**
+     * 写入输出流（阻塞模式）
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        for (int i = 0, n = chunks.size(); i < n; i++)
+        {
+            ByteBuffer chunk = chunks.get(i);
+            out.write(chunk.array(), chunk.arrayOffset(), chunk.position());
+        }
+    }
+
+    /**
+     * 准备聚集写（多路复用模式），之后通过{@link #writeTo(GatheringByteChannel)}写入通道
+     */
+    public void flip() {
+        int n = chunks.size();
+        if (array.length != n) array = new ByteBuffer[n];
+        for (int i = 0; i < n; i++)
+        {
+            (array[i] = chunks.get(i)).flip();
+        }
+    }
+
+    /**
+     * 聚集写入通道
+     *
+     * @return 数据是否全部写完
+     */
+    public boolean writeTo(GatheringByteChannel channel) throws IOException {
+        channel.write(array);
+        return !hasRemaining();
+    }
+
+    private boolean hasRemaining() {
+        for (int i = array.length - 1; i >= 0; i--)
+        {
+            if (array[i].hasRemaining()) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * 清空数据，分块归还缓存池
+     */
+    public void reset() {
+        for (int i = 0, n = chunks.size(); i < n; i++)
+        {
+            recycle(chunks.get(i));
+        }
+
+        chunks.clear();
+        current = null;
+        size = 0;
+        for (int i = 0; i < array.length; i++)
+        {
+            array[i] = null;
+        }
+    }
+}
\ No newline at end of file
@@ -3,31 +3,120 @@ package engine.java.socket.util;
 import engine.java.util.secure.CRCUtil;
 import engine.java.util.secure.Obfuscate;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public final class SocketUtil {
 
-    private static byte[] crypt_key;                                // 数据密钥
+    private static volatile Crypto crypto;                          // 数据密钥（全局共享，已废弃）
 
     /**
-     * 握手
-     * 
+     * 握手（密钥为全局共享，多个连接会相互覆盖）
+     *
      * @param bs 握手信息
      * @return CRC校验值
+     * @deprecated 使用{@link Crypto#Crypto(byte[])}为每个连接保存密钥
      */
+    @Deprecated
     public static int handshake(byte[] bs) {
-        // 解密握手信息
-        crypt_key = Obfuscate.clarify(bs);
-        return CRCUtil.calculate(crypt_key);
+        Crypto crypto = new Crypto(bs);
+        SocketUtil.crypto = crypto;
+        return crypto.getCrc();
     }
 
     /**
      * 数据处理
+     *
+     * @deprecated 使用{@link Crypto#crypt(byte[])}
      */
+    @Deprecated
     public static void crypt(byte[] data) {
-        if (crypt_key != null && data != null)
-        {
-            for (int i = 0; i < data.length; i++)
+        Crypto crypto = SocketUtil.crypto;
+        if (crypto != null) crypto.crypt(data);
+    }
+
+    /**
+     * 连接的数据密钥（握手后生成，每个连接一个实例）<p>
+     * 每个数据包都从密钥开头异或，加密解密为同一操作<br>
+     * 按8字节整数批量异或，无状态，线程安全
+     */
+    public static final class Crypto {
+
+        private final int crc;                                      // 密钥校验值
+
+        private final byte[] stream;                                // 密钥重复到8字节的整数倍
+
+        private final long[] words;                                 // 按本机字节序转换的密钥流
+
+        /**
+         * @param bs 握手信息
+         */
+        public Crypto(byte[] bs) {
+            // 解密握手信息
+            byte[] key = Obfuscate.clarify(bs);
+            if (key.length == 0)
+            {
+                throw new IllegalArgumentException("Empty key");
+            }
+
+            crc = CRCUtil.calculate(key);
+            // 密钥长度与8的最小公倍数
+            int length = key.length;
+            while (length % 8 != 0) length += key.length;
+
+            stream = new byte[length];
+            for (int i = 0; i < length; i += key.length)
+            {
+                System.arraycopy(key, 0, stream, i, key.length);
+            }
+
+            words = new long[length / 8];
+            ByteBuffer.wrap(stream).order(ByteOrder.nativeOrder()).asLongBuffer().get(words);
+        }
+
+        /**
+         * 握手应答的CRC校验值
+         */
+        public int getCrc() {
+            return crc;
+        }
+
+        /**
+         * 数据处理
+         */
+        public void crypt(byte[] data) {
+            if (data != null) crypt(data, 0, data.length);
+        }
+
+        public void crypt(byte[] data, int offset, int length) {
+            crypt(ByteBuffer.wrap(data).order(ByteOrder.nativeOrder()), offset, length);
+        }
+
+        /**
+         * 原地处理position到limit之间的数据（支持直接内存），不改变position
+         */
+        public void crypt(ByteBuffer buffer) {
+            crypt(buffer.duplicate().order(ByteOrder.nativeOrder()), buffer.position(), buffer.remaining());
+        }
+
+        /**
+         * @param buffer 须为本机字节序
+         */
+        private void crypt(ByteBuffer buffer, int offset, int length) {
+            long[] words = this.words;
+            int end = offset + length;
+            int i = offset;
+            int w = 0;
+            for (int limit = end - 7; i < limit; i += 8)
+            {
+                buffer.putLong(i, buffer.getLong(i) ^ words[w]);
+                if (++w == words.length) w = 0;
+            }
+
+            // 剩余不足8字节
+            for (int k = w * 8; i < end; i++, k++)
             {
-                data[i] = (byte) (data[i] ^ crypt_key[i % crypt_key.length]);
+                buffer.put(i, (byte) (buffer.get(i) ^ stream[k]));
             }
         }
     }
@@ -0,0 +1,273 @@
+package engine.java.util.extra;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 时间轮定时器<p>
+ * 功能：大量短时任务共用一个线程与一个环形数组，添加与取消均为O(1)，精度为一个刻度<br>
+ * 任务在定时器线程中执行，不可阻塞
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public class HashedWheelTimer {
+
+    private final String name;
+
+    private final long tickNanos;                       // 刻度时长
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final ConcurrentLinkedQueue<Timeout> timeouts
+    = new ConcurrentLinkedQueue<Timeout>();             // 待加入时间轮
+
+    private final ConcurrentLinkedQueue<Timeout> cancelled
+    = new ConcurrentLinkedQueue<Timeout>();             // 待移出时间轮
+
+    private final AtomicBoolean isStarted = new AtomicBoolean();
+
+    private volatile boolean isStopped;
+
+    private final long startTime;                       // 构造时确定，添加任务时无需等待线程启动
+
+    private long tick;
+
+    /**
+     * @param name 线程名称
+     * @param tickDuration 刻度时长
+     * @param ticksPerWheel 时间轮刻度数
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this.name = name;
+        tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        int n = Integer.highestOneBit(Math.max(1, ticksPerWheel) - 1) << 1;
+        wheel = new Bucket[Math.max(n, 1)];
+        for (int i = 0; i < wheel.length; i++)
+        {
+            wheel[i] = new Bucket();
+        }
+
+        mask = wheel.length - 1;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * 添加定时任务（线程安全）
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (isStopped)
+        {
+            throw new IllegalStateException(name + " is stopped");
+        }
+
+        start();
+        Timeout timeout = new Timeout(this, task,
+                System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay)));
+        timeouts.offer(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        isStopped = true;
+    }
+
+    private void start() {
+        if (isStarted.compareAndSet(false, true))
+        {
+            Thread t = new Thread(new Worker(), name);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            // 从当前刻度开始，跳过构造到启动之间的空刻度
+            tick = (System.nanoTime() - startTime) / tickNanos;
+            while (!isStopped)
+            {
+                waitForNextTick();
+                Bucket bucket = wheel[(int) (tick & mask)];
+                removeCancelled();
+                transferTimeouts();
+                bucket.expire();
+                tick++;
+            }
+        }
+
+        private void waitForNextTick() {
+            long deadline = tickNanos * (tick + 1);
+            while (true)
+            {
+                long current = System.nanoTime() - startTime;
+                long sleepMillis = (deadline - current + 999999) / 1000000;
+                if (sleepMillis <= 0)
+                {
+                    return;
+                }
+
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    if (isStopped) return;
+                }
+            }
+        }
+
+        private void transferTimeouts() {
+            // 限制单个刻度处理数量，避免生产过快时饿死时间轮
+            for (int i = 0; i < 100000; i++)
+            {
+                Timeout timeout = timeouts.poll();
+                if (timeout == null) break;
+                if (timeout.state != Timeout.ST_INIT) continue;
+
+                long calculated = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+                // 已过期的任务放入当前刻度
+                long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void removeCancelled() {
+            Timeout timeout;
+            while ((timeout = cancelled.poll()) != null)
+            {
+                if (timeout.bucket != null) timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * 定时任务句柄
+     */
+    public static final class Timeout {
+
+        private static final int ST_INIT = 0;
+
+        private static final int ST_CANCELLED = 1;
+
+        private static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE
+        = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedWheelTimer timer;
+
+        private final Runnable task;
+
+        private final long deadline;
+
+        private volatile int state;
+
+        long remainingRounds;
+
+        Timeout next, prev;
+
+        Bucket bucket;
+
+        Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消任务
+         *
+         * @return 任务已执行或已取消时返回false
+         */
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, ST_INIT, ST_CANCELLED))
+            {
+                timer.cancelled.offer(this);
+                return true;
+            }
+
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        void expire() {
+            if (STATE.compareAndSet(this, ST_INIT, ST_EXPIRED))
+            {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 时间轮刻度（双向链表，仅定时器线程访问）
+     */
+    private static final class Bucket {
+
+        private Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null)
+            {
+                head = tail = timeout;
+            }
+            else
+            {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null)
+            {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0)
+                {
+                    remove(timeout);
+                    timeout.expire();
+                }
+                else if (timeout.isCancelled())
+                {
+                    remove(timeout);
+                }
+                else
+                {
+                    timeout.remainingRounds--;
+                }
+
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) return;
+            Timeout next = timeout.next;
+            if (timeout.prev != null) timeout.prev.next = next;
+            if (next != null) next.prev = timeout.prev;
+            if (timeout == head) head = next;
+            if (timeout == tail) tail = timeout.prev;
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
\ No newline at end of file
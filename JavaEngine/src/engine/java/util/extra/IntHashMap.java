@@ -0,0 +1,179 @@
+package engine.java.util.extra;
+
+/**
+ * 以int为键的哈希表（开放寻址，不装箱，不为每个键值对创建Entry对象）<p>
+ * 非线程安全，不允许null值
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public class IntHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+
+    private Object[] values;
+
+    private int size;
+
+    private int threshold;
+
+    public IntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntHashMap(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (initialCapacity / LOAD_FACTOR)) - 1) << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(int key) {
+        // MurmurHash3 finalizer, spreads sequential ids
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        return key;
+    }
+
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (values[index] != null)
+        {
+            if (keys[index] == key)
+            {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return -1 - index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int index = indexOf(key);
+        return index >= 0 ? (V) values[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+        {
+            throw new NullPointerException("Value is not allowed Null.");
+        }
+
+        int index = indexOf(key);
+        if (index >= 0)
+        {
+            V old = (V) values[index];
+            values[index] = value;
+            return old;
+        }
+
+        index = -1 - index;
+        keys[index] = key;
+        values[index] = value;
+        if (++size > threshold)
+        {
+            resize(keys.length << 1);
+        }
+
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int index = indexOf(key);
+        if (index < 0)
+        {
+            return null;
+        }
+
+        V old = (V) values[index];
+        values[index] = null;
+        size--;
+        // 后移删除，保持探测链连续
+        int mask = keys.length - 1;
+        int hole = index;
+        index = (index + 1) & mask;
+        while (values[index] != null)
+        {
+            int home = hash(keys[index]) & mask;
+            if (((index - home) & mask) >= ((index - hole) & mask))
+            {
+                keys[hole] = keys[index];
+                values[hole] = values[index];
+                values[index] = null;
+                hole = index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return old;
+    }
+
+    public void clear() {
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = null;
+        }
+
+        size = 0;
+    }
+
+    /**
+     * 遍历所有值（遍历过程中不可修改）
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<V> visitor) {
+        for (int i = 0; i < values.length; i++)
+        {
+            if (values[i] != null)
+            {
+                visitor.visit(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    public interface Visitor<V> {
+
+        void visit(int key, V value);
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+        for (int i = 0; i < oldValues.length; i++)
+        {
+            if (oldValues[i] != null)
+            {
+                int index = -1 - indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
\ No newline at end of file
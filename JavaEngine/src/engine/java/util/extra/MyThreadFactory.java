@@ -1,5 +1,6 @@
 package engine.java.util.extra;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -38,4 +39,61 @@ public class MyThreadFactory implements ThreadFactory {
 
         return t;
     }
+
+    /**
+     * 虚拟线程工厂（Java 21+），适用于大量阻塞I/O的任务<br>
+     * 运行环境不支持时返回普通的后台线程工厂
+     *
+     * @param name 线程名称前缀
+     */
+    public static ThreadFactory newVirtualThreadFactory(String name) {
+        ThreadFactory factory = VirtualThreads.newFactory(name + "-");
+        return factory != null ? factory : new MyThreadFactory(name);
+    }
+
+    /**
+     * 运行环境是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.builder != null;
+    }
+
+    /**
+     * 通过反射调用Thread.ofVirtual()，兼容低版本Java
+     */
+    private static final class VirtualThreads {
+
+        static final Method builder;                // Thread.ofVirtual()
+        static final Method name;                   // Thread.Builder.name(String, long)
+        static final Method factory;                // Thread.Builder.factory()
+
+        static
+        {
+            Method b = null, n = null, f = null;
+            try {
+                Class<?> c = Class.forName("java.lang.Thread$Builder");
+                n = c.getMethod("name", String.class, long.class);
+                f = c.getMethod("factory");
+                b = Thread.class.getMethod("ofVirtual");
+                // 预览版本未开启时抛出异常
+                b.invoke(null);
+            } catch (Throwable e) {
+                b = null;
+            }
+
+            builder = b;
+            name = n;
+            factory = f;
+        }
+
+        static ThreadFactory newFactory(String namePrefix) {
+            if (builder == null) return null;
+            try {
+                Object b = name.invoke(builder.invoke(null), namePrefix, 1L);
+                return (ThreadFactory) factory.invoke(b);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
 }
\ No newline at end of file
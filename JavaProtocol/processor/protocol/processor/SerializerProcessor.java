@@ -0,0 +1,743 @@
+package protocol.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+/**
+ * 为{@code protocol.util.ProtocolSerializable}标记的类生成序列化代码<p>
+ * 生成的类与数据类在同一个包中，命名为{@code 类名Serializer}（内部类用下划线连接外部类名），
+ * 数据格式与手写的write/read方法一致
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public class SerializerProcessor extends AbstractProcessor {
+
+    private static final String ANNOTATION = "protocol.util.ProtocolSerializable";
+    private static final String TIMESTAMP = ANNOTATION + ".Timestamp";
+    private static final String SHARED = ANNOTATION + ".Shared";
+
+    private static final class Field {
+
+        final String name;
+        final TypeMirror type;
+        final String annotation;                    // 紧凑编码方式（TIMESTAMP或SHARED），可为null
+
+        Field(String name, TypeMirror type, String annotation) {
+            this.name = name;
+            this.type = type;
+            this.annotation = annotation;
+        }
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<String>(Arrays.asList(ANNOTATION, TIMESTAMP, SHARED));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        if (annotation == null)
+        {
+            return false;
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation))
+        {
+            if (element.getKind() != ElementKind.CLASS)
+            {
+                error(element, "@ProtocolSerializable只能标记类");
+                continue;
+            }
+
+            TypeElement type = (TypeElement) element;
+            List<Field> fields = new ArrayList<Field>();
+            if (collectFields(type, fields))
+            {
+                try {
+                    generate(type, fields);
+                } catch (IOException e) {
+                    error(type, "生成序列化代码失败：" + e);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 按声明顺序收集字段（父类字段在前）
+     */
+    private boolean collectFields(TypeElement type, List<Field> fields) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() == TypeKind.DECLARED)
+        {
+            TypeElement superType = (TypeElement) ((DeclaredType) superclass).asElement();
+            if (!superType.getQualifiedName().contentEquals("java.lang.Object")
+            && !collectFields(superType, fields))
+            {
+                return false;
+            }
+        }
+
+        boolean isValid = true;
+        for (Element e : type.getEnclosedElements())
+        {
+            if (e.getKind() != ElementKind.FIELD)
+            {
+                continue;
+            }
+
+            Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT))
+            {
+                continue;
+            }
+
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL))
+            {
+                error(e, "序列化字段不能是private或final");
+                isValid = false;
+                continue;
+            }
+
+            TypeMirror fieldType = e.asType();
+            TypeMirror elementType = fieldType.getKind() == TypeKind.ARRAY
+                    ? ((ArrayType) fieldType).getComponentType() : fieldType;
+            if (!isPrimitive(elementType) && !isString(elementType) && !isSerializable(elementType))
+            {
+                error(e, "不支持的字段类型：" + fieldType);
+                isValid = false;
+                continue;
+            }
+
+            if (isSerializable(elementType) && !hasDefaultConstructor(elementType))
+            {
+                error(e, elementType + "需要无参构造函数");
+                isValid = false;
+                continue;
+            }
+
+            String annotation = null;
+            if (hasAnnotation(e, TIMESTAMP))
+            {
+                if (elementType.getKind() != TypeKind.LONG)
+                {
+                    error(e, "@Timestamp只能标记long字段");
+                    isValid = false;
+                    continue;
+                }
+
+                annotation = TIMESTAMP;
+            }
+            else if (hasAnnotation(e, SHARED))
+            {
+                if (!isString(elementType))
+                {
+                    error(e, "@Shared只能标记String字段");
+                    isValid = false;
+                    continue;
+                }
+
+                annotation = SHARED;
+            }
+
+            fields.add(new Field(e.getSimpleName().toString(), fieldType, annotation));
+        }
+
+        return isValid;
+    }
+
+    private static boolean isPrimitive(TypeMirror type) {
+        return type.getKind().isPrimitive();
+    }
+
+    private static boolean isString(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && type.toString().equals("java.lang.String");
+    }
+
+    private static boolean isSerializable(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+            && hasAnnotation(((DeclaredType) type).asElement(), ANNOTATION);
+    }
+
+    private static boolean hasAnnotation(Element element, String annotation) {
+        for (AnnotationMirror a : element.getAnnotationMirrors())
+        {
+            TypeElement annotationType = (TypeElement) a.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(annotation))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean hasDefaultConstructor(TypeMirror type) {
+        for (Element e : ((DeclaredType) type).asElement().getEnclosedElements())
+        {
+            if (e.getKind() == ElementKind.CONSTRUCTOR
+            && ((ExecutableElement) e).getParameters().isEmpty()
+            && !e.getModifiers().contains(Modifier.PRIVATE))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 生成的序列化类名
+     */
+    private String serializerName(TypeElement type) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type)
+                .getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName
+                : binaryName.substring(packageName.length() + 1)).replace('$', '_');
+        return simpleName + "Serializer";
+    }
+
+    private String serializer(TypeMirror type) {
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        String packageName = processingEnv.getElementUtils().getPackageOf(element)
+                .getQualifiedName().toString();
+        String name = serializerName(element);
+        return (packageName.isEmpty() ? name : packageName + "." + name) + ".INSTANCE";
+    }
+
+    private void generate(TypeElement type, List<Field> fields) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type)
+                .getQualifiedName().toString();
+        String className = serializerName(type);
+        String dataType = type.getQualifiedName().toString();
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                packageName.isEmpty() ? className : packageName + "." + className, type);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            if (!packageName.isEmpty())
+            {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+
+            out.println("import protocol.util.ProtocolSerializer;");
+            out.println("import protocol.util.ProtocolSerializers;");
+            out.println("import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataInputStream;");
+            out.println("import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream;");
+            out.println();
+            out.println("import java.io.IOException;");
+            out.println("import java.nio.ByteBuffer;");
+            out.println();
+            out.println("/**");
+            out.println(" * " + type.getSimpleName() + "的序列化代码（由" + getClass().getSimpleName() + "生成，请勿修改）");
+            out.println(" */");
+            out.println("public final class " + className + " implements ProtocolSerializer<" + dataType + "> {");
+            out.println();
+            out.println("    public static final " + className + " INSTANCE = new " + className + "();");
+
+            generateSizeOf(out, dataType, fields);
+            generateWriteBuffer(out, dataType, fields);
+            generateReadBuffer(out, dataType, fields);
+            generateWriteStream(out, dataType, fields);
+            generateReadStream(out, dataType, fields);
+
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private void generateSizeOf(PrintWriter out, String dataType, List<Field> fields) {
+        int fixedSize = 0;
+        List<String> lines = new ArrayList<String>();
+        for (Field field : fields)
+        {
+            String v = "data." + field.name;
+            TypeMirror type = field.type;
+            if (isPrimitive(type))
+            {
+                fixedSize += sizeOf(type.getKind());
+            }
+            else if (isString(type))
+            {
+                lines.add("size += ProtocolSerializers.sizeOf(" + v + ");");
+            }
+            else if (isSerializable(type))
+            {
+                fixedSize += 1;
+                lines.add("if (" + v + " != null) size += " + serializer(type) + ".sizeOf(" + v + ");");
+            }
+            else
+            {
+                fixedSize += 4;
+                TypeMirror component = ((ArrayType) type).getComponentType();
+                if (isPrimitive(component))
+                {
+                    lines.add("if (" + v + " != null) size += " + v + ".length * "
+                            + sizeOf(component.getKind()) + ";");
+                }
+                else
+                {
+                    String element = isString(component) ? "ProtocolSerializers"
+                            : serializer(component);
+                    lines.add("if (" + v + " != null)");
+                    lines.add("{");
+                    lines.add("    for (" + component + " e : " + v + ")");
+                    lines.add("    {");
+                    lines.add("        size += " + element + ".sizeOf(e);");
+                    lines.add("    }");
+                    lines.add("}");
+                }
+            }
+        }
+
+        out.println();
+        out.println("    @Override");
+        out.println("    public int sizeOf(" + dataType + " data) throws IOException {");
+        if (lines.isEmpty())
+        {
+            out.println("        return " + fixedSize + ";");
+        }
+        else
+        {
+            out.println("        int size = " + fixedSize + ";");
+            for (String line : lines)
+            {
+                out.println("        " + line);
+            }
+
+            out.println("        return size;");
+        }
+
+        out.println("    }");
+    }
+
+    private void generateWriteBuffer(PrintWriter out, String dataType, List<Field> fields) {
+        out.println();
+        out.println("    @Override");
+        out.println("    public void write(" + dataType + " data, ByteBuffer buffer) {");
+        for (Field field : fields)
+        {
+            String v = "data." + field.name;
+            TypeMirror type = field.type;
+            if (type.getKind() != TypeKind.ARRAY)
+            {
+                writeBuffer(out, "        ", type, v, true);
+                continue;
+            }
+
+            TypeMirror component = ((ArrayType) type).getComponentType();
+            out.println("        if (" + v + " == null)");
+            out.println("        {");
+            out.println("            buffer.putInt(0);");
+            out.println("        }");
+            out.println("        else");
+            out.println("        {");
+            out.println("            buffer.putInt(" + v + ".length);");
+            if (component.getKind() == TypeKind.BYTE)
+            {
+                out.println("            buffer.put(" + v + ");");
+            }
+            else
+            {
+                out.println("            for (" + component + " e : " + v + ")");
+                out.println("            {");
+                writeBuffer(out, "                ", component, "e", false);
+                out.println("            }");
+            }
+
+            out.println("        }");
+        }
+
+        out.println("    }");
+    }
+
+    private void writeBuffer(PrintWriter out, String indent, TypeMirror type, String v, boolean nullable) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                out.println(indent + "buffer.put((byte) (" + v + " ? 1 : 0));");
+                break;
+            case BYTE:
+                out.println(indent + "buffer.put(" + v + ");");
+                break;
+            case SHORT:
+                out.println(indent + "buffer.putShort(" + v + ");");
+                break;
+            case CHAR:
+                out.println(indent + "buffer.putChar(" + v + ");");
+                break;
+            case INT:
+                out.println(indent + "buffer.putInt(" + v + ");");
+                break;
+            case LONG:
+                out.println(indent + "buffer.putLong(" + v + ");");
+                break;
+            case FLOAT:
+                out.println(indent + "buffer.putInt(Float.floatToIntBits(" + v + "));");
+                break;
+            case DOUBLE:
+                out.println(indent + "buffer.putLong(Double.doubleToLongBits(" + v + "));");
+                break;
+            default:
+                if (isString(type))
+                {
+                    out.println(indent + "ProtocolSerializers.putString(buffer, " + v + ");");
+                }
+                else if (nullable)
+                {
+                    out.println(indent + "buffer.put((byte) (" + v + " != null ? 1 : 0));");
+                    out.println(indent + "if (" + v + " != null) " + serializer(type) + ".write(" + v + ", buffer);");
+                }
+                else
+                {
+                    out.println(indent + serializer(type) + ".write(" + v + ", buffer);");
+                }
+        }
+    }
+
+    private void generateReadBuffer(PrintWriter out, String dataType, List<Field> fields) {
+        out.println();
+        out.println("    @Override");
+        out.println("    public void read(" + dataType + " data, ByteBuffer buffer) throws IOException {");
+        for (Field field : fields)
+        {
+            String v = "data." + field.name;
+            TypeMirror type = field.type;
+            if (type.getKind() != TypeKind.ARRAY)
+            {
+                readBuffer(out, "        ", type, v, true);
+                continue;
+            }
+
+            TypeMirror component = ((ArrayType) type).getComponentType();
+            int minSize = minSize(component);
+            out.println("        {");
+            out.println("            int n = ProtocolSerializers.getCount(buffer, " + minSize + ");");
+            out.println("            if (n > 0)");
+            out.println("            {");
+            out.println("                " + component + "[] a = " + newArray(component, "n") + ";");
+            if (component.getKind() == TypeKind.BYTE)
+            {
+                out.println("                buffer.get(a);");
+            }
+            else
+            {
+                out.println("                for (int i = 0; i < n; i++)");
+                out.println("                {");
+                readBuffer(out, "                    ", component, "a[i]", false);
+                out.println("                }");
+            }
+
+            out.println();
+            out.println("                " + v + " = a;");
+            out.println("            }");
+            out.println("            else");
+            out.println("            {");
+            out.println("                " + v + " = null;");
+            out.println("            }");
+            out.println("        }");
+        }
+
+        out.println("    }");
+    }
+
+    private void readBuffer(PrintWriter out, String indent, TypeMirror type, String v, boolean nullable) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                out.println(indent + v + " = buffer.get() != 0;");
+                break;
+            case BYTE:
+                out.println(indent + v + " = buffer.get();");
+                break;
+            case SHORT:
+                out.println(indent + v + " = buffer.getShort();");
+                break;
+            case CHAR:
+                out.println(indent + v + " = buffer.getChar();");
+                break;
+            case INT:
+                out.println(indent + v + " = buffer.getInt();");
+                break;
+            case LONG:
+                out.println(indent + v + " = buffer.getLong();");
+                break;
+            case FLOAT:
+                out.println(indent + v + " = Float.intBitsToFloat(buffer.getInt());");
+                break;
+            case DOUBLE:
+                out.println(indent + v + " = Double.longBitsToDouble(buffer.getLong());");
+                break;
+            default:
+                if (isString(type))
+                {
+                    out.println(indent + v + " = ProtocolSerializers.getString(buffer);");
+                }
+                else if (nullable)
+                {
+                    out.println(indent + "if (buffer.get() != 0)");
+                    out.println(indent + "{");
+                    out.println(indent + "    " + type + " e = new " + type + "();");
+                    out.println(indent + "    " + serializer(type) + ".read(e, buffer);");
+                    out.println(indent + "    " + v + " = e;");
+                    out.println(indent + "}");
+                    out.println(indent + "else");
+                    out.println(indent + "{");
+                    out.println(indent + "    " + v + " = null;");
+                    out.println(indent + "}");
+                }
+                else
+                {
+                    out.println(indent + serializer(type) + ".read(" + v + " = new " + type + "(), buffer);");
+                }
+        }
+    }
+
+    private void generateWriteStream(PrintWriter out, String dataType, List<Field> fields) {
+        out.println();
+        out.println("    @Override");
+        out.println("    public void write(" + dataType + " data, ProtocolDataOutputStream dos) throws IOException {");
+        for (Field field : fields)
+        {
+            String v = "data." + field.name;
+            TypeMirror type = field.type;
+            if (type.getKind() != TypeKind.ARRAY)
+            {
+                writeStream(out, "        ", type, field.annotation, v, true);
+                continue;
+            }
+
+            TypeMirror component = ((ArrayType) type).getComponentType();
+            out.println("        if (" + v + " == null)");
+            out.println("        {");
+            out.println("            dos.writeCount(0);");
+            out.println("        }");
+            out.println("        else");
+            out.println("        {");
+            out.println("            dos.writeCount(" + v + ".length);");
+            if (component.getKind() == TypeKind.BYTE)
+            {
+                out.println("            dos.write(" + v + ");");
+            }
+            else
+            {
+                out.println("            for (" + component + " e : " + v + ")");
+                out.println("            {");
+                writeStream(out, "                ", component, field.annotation, "e", false);
+                out.println("            }");
+            }
+
+            out.println("        }");
+        }
+
+        out.println("    }");
+    }
+
+    private void writeStream(PrintWriter out, String indent, TypeMirror type, String annotation,
+            String v, boolean nullable) {
+        if (isPrimitive(type))
+        {
+            out.println(indent + "dos.write" + streamMethod(type.getKind(), annotation) + "(" + v + ");");
+        }
+        else if (isString(type))
+        {
+            out.println(indent + "dos.write" + stringMethod(annotation) + "(" + v + ");");
+        }
+        else if (nullable)
+        {
+            out.println(indent + "dos.writeBoolean(" + v + " != null);");
+            out.println(indent + "if (" + v + " != null) " + serializer(type) + ".write(" + v + ", dos);");
+        }
+        else
+        {
+            out.println(indent + serializer(type) + ".write(" + v + ", dos);");
+        }
+    }
+
+    private void generateReadStream(PrintWriter out, String dataType, List<Field> fields) {
+        out.println();
+        out.println("    @Override");
+        out.println("    public void read(" + dataType + " data, ProtocolDataInputStream dis) throws IOException {");
+        for (Field field : fields)
+        {
+            String v = "data." + field.name;
+            TypeMirror type = field.type;
+            if (type.getKind() != TypeKind.ARRAY)
+            {
+                readStream(out, "        ", type, field.annotation, v, true);
+                continue;
+            }
+
+            TypeMirror component = ((ArrayType) type).getComponentType();
+            out.println("        {");
+            out.println("            int n = dis.readCount(" + minSize(component) + ");");
+            out.println("            if (n > 0)");
+            out.println("            {");
+            out.println("                " + component + "[] a = " + newArray(component, "n") + ";");
+            if (component.getKind() == TypeKind.BYTE)
+            {
+                out.println("                dis.readFully(a);");
+            }
+            else
+            {
+                out.println("                for (int i = 0; i < n; i++)");
+                out.println("                {");
+                readStream(out, "                    ", component, field.annotation, "a[i]", false);
+                out.println("                }");
+            }
+
+            out.println();
+            out.println("                " + v + " = a;");
+            out.println("            }");
+            out.println("            else");
+            out.println("            {");
+            out.println("                " + v + " = null;");
+            out.println("            }");
+            out.println("        }");
+        }
+
+        out.println("    }");
+    }
+
+    private void readStream(PrintWriter out, String indent, TypeMirror type, String annotation,
+            String v, boolean nullable) {
+        if (isPrimitive(type))
+        {
+            out.println(indent + v + " = dis.read" + streamMethod(type.getKind(), annotation) + "();");
+        }
+        else if (isString(type))
+        {
+            out.println(indent + v + " = dis.read" + stringMethod(annotation) + "();");
+        }
+        else if (nullable)
+        {
+            out.println(indent + "if (dis.readBoolean())");
+            out.println(indent + "{");
+            out.println(indent + "    " + type + " e = new " + type + "();");
+            out.println(indent + "    " + serializer(type) + ".read(e, dis);");
+            out.println(indent + "    " + v + " = e;");
+            out.println(indent + "}");
+            out.println(indent + "else");
+            out.println(indent + "{");
+            out.println(indent + "    " + v + " = null;");
+            out.println(indent + "}");
+        }
+        else
+        {
+            out.println(indent + serializer(type) + ".read(" + v + " = new " + type + "(), dis);");
+        }
+    }
+
+    /**
+     * 序列化后的最小长度（用于读取时检查数组长度）
+     */
+    private static int minSize(TypeMirror type) {
+        if (isPrimitive(type))
+        {
+            return sizeOf(type.getKind());
+        }
+
+        if (!isSerializable(type))
+        {
+            // 字符串和数组
+            return type.getKind() == TypeKind.ARRAY ? 4 : 1;
+        }
+
+        int size = 0;
+        TypeMirror t = type;
+        while (t.getKind() == TypeKind.DECLARED)
+        {
+            TypeElement element = (TypeElement) ((DeclaredType) t).asElement();
+            for (Element e : element.getEnclosedElements())
+            {
+                if (e.getKind() == ElementKind.FIELD
+                && !e.getModifiers().contains(Modifier.STATIC)
+                && !e.getModifiers().contains(Modifier.TRANSIENT))
+                {
+                    // 嵌套的数据类只计算是否为null的标志
+                    size += isSerializable(e.asType()) ? 1 : minSize(e.asType());
+                }
+            }
+
+            t = element.getSuperclass();
+        }
+
+        return size;
+    }
+
+    private static String newArray(TypeMirror component, String length) {
+        return "new " + component + "[" + length + "]";
+    }
+
+    private static int sizeOf(TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case SHORT:
+            case CHAR:
+                return 2;
+            case INT:
+            case FLOAT:
+                return 4;
+            default:
+                return 8;
+        }
+    }
+
+    /**
+     * ProtocolDataOutputStream/ProtocolDataInputStream的方法名后缀（int和long使用紧凑编码）
+     */
+    private static String streamMethod(TypeKind kind, String annotation) {
+        if (kind == TypeKind.INT)
+        {
+            return "CompactInt";
+        }
+
+        if (kind == TypeKind.LONG)
+        {
+            return TIMESTAMP.equals(annotation) ? "Timestamp" : "CompactLong";
+        }
+
+        String name = kind.name().toLowerCase();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String stringMethod(String annotation) {
+        return SHARED.equals(annotation) ? "SharedString" : "String";
+    }
+
+    private void error(Element element, String msg) {
+        processingEnv.getMessager().printMessage(Kind.ERROR, msg, element);
+    }
+}
\ No newline at end of file
@@ -5,7 +5,7 @@ package protocol.http;
  */
 public class NavigationData {
     
-    public String socket_server_url;                // Socket服务器地址
+    public String socket_server_url;                // Socket服务器地址（多个地址以逗号分隔，如host1:port,host2:port）
     
     public String upload_server_url;                // 文件上传服务器地址
     
@@ -1,5 +1,6 @@
 package protocol.socket;
 
+import protocol.util.ProtocolSerializable;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolData;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataInputStream;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream;
@@ -9,6 +10,7 @@ import java.io.IOException;
 /**
  * 返回给客户端的错误信息
  */
+@ProtocolSerializable
 public class ErrorInfo extends protocol.http.ErrorInfo implements ProtocolData {
     
     public ErrorInfo(int code) {
@@ -17,13 +19,13 @@ public class ErrorInfo extends protocol.http.ErrorInfo implements ProtocolData {
 
     @Override
     public void write(ProtocolDataOutputStream dos) throws IOException {
-        dos.writeInt(code);
+        dos.writeCompactInt(code);
         dos.writeString(msg);
     }
 
     @Override
     public void read(ProtocolDataInputStream dis) throws IOException {
-        code = dis.readInt();
+        code = dis.readCompactInt();
         msg = dis.readString();
     }
 }
\ No newline at end of file
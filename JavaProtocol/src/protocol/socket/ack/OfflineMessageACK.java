@@ -1,15 +1,20 @@
 package protocol.socket.ack;
 
 import protocol.socket.req.Message;
+import protocol.util.ProtocolSerializable;
+import protocol.util.ProtocolWrapper.ProtocolEntity;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolData;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataInputStream;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream;
 
 import java.io.IOException;
+import java.util.NoSuchElementException;
 
 /**
- * 离线消息应答
+ * 离线消息应答<p>
+ * 离线时间很长时消息数量可能很大，可使用{@link #openCursor(ProtocolEntity)}逐条解析
  */
+@ProtocolSerializable
 public class OfflineMessageACK implements ProtocolData {
     
     public Message[] message;
@@ -17,7 +22,7 @@ public class OfflineMessageACK implements ProtocolData {
     @Override
     public void write(ProtocolDataOutputStream dos) throws IOException {
         int num = message != null ? message.length : 0;
-        dos.writeInt(num);
+        dos.writeCount(num);
         if (num > 0)
         {
             for (Message msg : message)
@@ -29,7 +34,8 @@ public class OfflineMessageACK implements ProtocolData {
 
     @Override
     public void read(ProtocolDataInputStream dis) throws IOException {
-        int num = dis.readInt();
+        // 每条消息至少19字节（3个字符串标志+2个int+1个long）
+        int num = dis.readCount(19);
         if (num > 0)
         {
             message = new Message[num];
@@ -38,5 +44,54 @@ public class OfflineMessageACK implements ProtocolData {
                 (message[i] = new Message()).read(dis);
             }
         }
+        else
+        {
+            message = null;
+        }
+    }
+
+    /**
+     * 打开离线消息游标（代替{@link ProtocolEntity#parseBody()}）
+     */
+    public static Cursor openCursor(ProtocolEntity entity) throws Exception {
+        return new Cursor(entity.openBody(OfflineMessageACK.class));
+    }
+
+    /**
+     * 离线消息游标，每次调用{@link #next()}才解析一条消息，不保留已读取的消息<p>
+     * 非线程安全，读取完毕后再调用{@link ProtocolEntity#release()}
+     */
+    public static final class Cursor {
+
+        private final ProtocolDataInputStream dis;
+
+        private final int count;                    // 消息总数
+        private int index;                          // 已读取的消息数
+
+        Cursor(ProtocolDataInputStream dis) throws IOException {
+            this.dis = dis;
+            // 每条消息至少1字节，按剩余数据检查数量
+            count = Math.max(dis.readCount(1), 0);
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public boolean hasNext() {
+            return index < count;
+        }
+
+        public Message next() throws IOException {
+            if (index >= count)
+            {
+                throw new NoSuchElementException();
+            }
+
+            Message message = new Message();
+            message.read(dis);
+            index++;
+            return message;
+        }
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package protocol.socket.req;
 
+import protocol.util.ProtocolSerializable;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolData;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataInputStream;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream;
@@ -9,10 +10,12 @@ import java.io.IOException;
 /**
  * 聊天消息
  */
+@ProtocolSerializable
 public class Message implements ProtocolData {
     
     public String id;                       // 消息ID，用于排重
     
+    @ProtocolSerializable.Shared
     public String account;                  // 发送/接收方账号
     
     public String content;                  // 消息内容
@@ -36,25 +39,26 @@ public class Message implements ProtocolData {
      */
     public int event;                       // 消息事件
     
+    @ProtocolSerializable.Timestamp
     public long creationTime;               // 消息创建时间（客户端不用设置）
 
     @Override
     public void write(ProtocolDataOutputStream dos) throws IOException {
         dos.writeString(id);
-        dos.writeString(account);
+        dos.writeSharedString(account);
         dos.writeString(content);
-        dos.writeInt(type);
-        dos.writeInt(event);
-        dos.writeLong(creationTime);
+        dos.writeCompactInt(type);
+        dos.writeCompactInt(event);
+        dos.writeTimestamp(creationTime);
     }
 
     @Override
     public void read(ProtocolDataInputStream dis) throws IOException {
         id = dis.readString();
-        account = dis.readString();
+        account = dis.readSharedString();
         content = dis.readString();
-        type = dis.readInt();
-        event = dis.readInt();
-        creationTime = dis.readLong();
+        type = dis.readCompactInt();
+        event = dis.readCompactInt();
+        creationTime = dis.readTimestamp();
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package protocol.socket.req;
 
+import protocol.util.ProtocolSerializable;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolData;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataInputStream;
 import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream;
@@ -9,17 +10,18 @@ import java.io.IOException;
 /**
  * 拉取离线消息
  */
+@ProtocolSerializable
 public class OfflineMessage implements ProtocolData {
     
     public long timestamp;                  // 最新消息时间戳
 
     @Override
     public void write(ProtocolDataOutputStream dos) throws IOException {
-        dos.writeLong(timestamp);
+        dos.writeCompactLong(timestamp);
     }
 
     @Override
     public void read(ProtocolDataInputStream dis) throws IOException {
-        timestamp = dis.readLong();
+        timestamp = dis.readCompactLong();
     }
 }
\ No newline at end of file
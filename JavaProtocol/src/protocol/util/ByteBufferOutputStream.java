@@ -0,0 +1,61 @@
+package protocol.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 写入缓存池缓冲区的输出流，容量不足时换用更大的缓冲区
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class ByteBufferOutputStream extends OutputStream {
+
+    ByteBuffer buffer;
+
+    /**
+     * 确保缓冲区剩余空间不小于n
+     */
+    public void ensureCapacity(int n) {
+        if (buffer.remaining() < n)
+        {
+            ByteBuffer newBuffer = ProtocolBufferPool.obtainBuffer(
+                    Math.max(buffer.capacity() << 1, buffer.position() + n), buffer.isDirect());
+            buffer.flip();
+            newBuffer.put(buffer);
+            ProtocolBufferPool.recycle(buffer);
+            buffer = newBuffer;
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * 取出缓冲区（之后不可再写入）
+     */
+    public ByteBuffer detach() {
+        ByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        return buffer;
+    }
+
+    /**
+     * 写入失败时归还缓冲区
+     */
+    public void recycle() {
+        if (buffer != null)
+        {
+            ProtocolBufferPool.recycle(detach());
+        }
+    }
+}
\ No newline at end of file
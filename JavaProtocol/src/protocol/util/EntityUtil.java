@@ -1,6 +1,23 @@
 package protocol.util;
 
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 网络协议数据转换工具<p>
@@ -35,6 +52,43 @@ public final class EntityUtil {
         if (encryptor != null) data = encryptor.decrypt(data);
         return new String(data, UTF_8);
     }
+    
+    /**
+     * 加密输出流，格式与{@link #toByteArray(String)}相同
+     * 
+     * @param length 写入的数据长度（需预先确定），关闭时检查
+     */
+    public static OutputStream encrypt(OutputStream out, int length) {
+        return encryptor != null ? encryptor.encrypt(out, length) : out;
+    }
+    
+    /**
+     * 解密输入流，用于边接收边解析大数据
+     */
+    public static InputStream decrypt(InputStream in) {
+        return encryptor != null ? encryptor.decrypt(in) : in;
+    }
+    
+    /**
+     * 原地加密缓冲区的剩余数据（剩余空间须至少为{@link Blowfish#MAX_EXPANSION}）
+     */
+    public static void encrypt(ByteBuffer buffer) {
+        if (encryptor != null && buffer.hasRemaining()) encryptor.encrypt(buffer);
+    }
+    
+    /**
+     * 原地解密缓冲区的剩余数据
+     */
+    public static void decrypt(ByteBuffer buffer) {
+        if (encryptor != null && buffer.hasRemaining()) encryptor.decrypt(buffer);
+    }
+    
+    /**
+     * 数据超过此长度时使用多线程加解密（默认不开启，适用于几MB以上的数据）
+     */
+    public static void setParallelThreshold(int threshold) {
+        Blowfish.setParallelThreshold(threshold);
+    }
 }
 
 /**
@@ -330,6 +384,19 @@ final class Blowfish {
 
     private static final int PBOX_SIZE = 18;    // P盒的长度,固定18个int
 
+    private static final int HEADER_SIZE = 2;   // 数据头（长度）
+
+    /** 原地加密需要的额外空间（数据头 + 补齐） **/
+    public static final int MAX_EXPANSION = HEADER_SIZE + BLOCK_SIZE - 1;
+
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static volatile int parallelThreshold = Integer.MAX_VALUE;
+
+    private static ExecutorService executor;    // 并行加解密的线程池（按需创建）
+
     private final int[] S0, S1, S2, S3;         // 变换后的S盒（表查询）
 
     private final int[] P;                      // 变换后的P盒（子密钥）
@@ -367,24 +434,15 @@ final class Blowfish {
     }
 
     /**
-     * 加密函数
+     * 加密函数（数据格式：2字节长度 + 补齐为8字节整数倍的密文）
      */
     public byte[] encrypt(byte[] bs, int offset, int length) {
-        int blocks = (length / BLOCK_SIZE) + (length % BLOCK_SIZE == 0 ? 0 : 1);
-        byte[] input = new byte[blocks * BLOCK_SIZE];
-        byte[] output = new byte[blocks * BLOCK_SIZE + 2];
-        System.arraycopy(bs, offset, input, 0, length);
+        byte[] output = new byte[HEADER_SIZE + padded(length)];
         output[0] = (byte) (length >> 8);
         output[1] = (byte) (length & 0xff);
-        int inputOffset = 0;
-        int outputOffset = 2;
-        for (int i = 0; i < blocks; i++)
-        {
-            encryptBlock(input, inputOffset, output, outputOffset);
-            inputOffset += BLOCK_SIZE;
-            outputOffset += BLOCK_SIZE;
-        }
-
+        System.arraycopy(bs, offset, output, HEADER_SIZE, length);
+        // 原地加密
+        crypt(true, output, HEADER_SIZE, output, HEADER_SIZE, output.length - HEADER_SIZE);
         return output;
     }
 
@@ -392,23 +450,484 @@ final class Blowfish {
      * 解密函数
      */
     public byte[] decrypt(byte[] bs) {
-        int length = ((bs[0] & 0xff) << 8) + (bs[1] & 0xff);
-        int blocks = (length / BLOCK_SIZE) + (length % BLOCK_SIZE == 0 ? 0 : 1);
-        byte[] input = new byte[blocks * BLOCK_SIZE];
+        int length = plainLength(bs[0], bs[1], bs.length - HEADER_SIZE);
         byte[] output = new byte[length];
-        int inputOffset = 2;
-        int outputOffset = 0;
-        for (int i = 0; i < blocks; i++)
+        int full = length & ~(BLOCK_SIZE - 1);
+        crypt(false, bs, HEADER_SIZE, output, 0, full);
+        if (full < length)
         {
-            decryptBlock(bs, inputOffset, input, outputOffset);
-            inputOffset += BLOCK_SIZE;
-            outputOffset += BLOCK_SIZE;
+            // 最后一块
+            byte[] block = new byte[BLOCK_SIZE];
+            decryptBlock(bs, HEADER_SIZE + full, block, 0);
+            System.arraycopy(block, 0, output, full, length - full);
         }
 
-        System.arraycopy(input, 0, output, 0, length);
         return output;
     }
 
+    /**
+     * 原地加密position到limit之间的数据，格式与{@link #encrypt(byte[])}相同<p>
+     * 数据后移2字节写入长度并补齐块，缓冲区剩余空间须至少为{@link #MAX_EXPANSION}，
+     * 完成后limit指向密文末尾
+     */
+    public void encrypt(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = buffer.remaining();
+        int end = start + HEADER_SIZE + padded(length);
+        if (end > buffer.capacity())
+        {
+            throw new BufferOverflowException();
+        }
+
+        buffer.limit(end);
+        for (int i = start + length; i < end - HEADER_SIZE; i++)
+        {
+            buffer.put(i, (byte) 0);
+        }
+
+        if (buffer.hasArray())
+        {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset() + start;
+            System.arraycopy(array, offset, array, offset + HEADER_SIZE, end - start - HEADER_SIZE);
+            crypt(true, array, offset + HEADER_SIZE, array, offset + HEADER_SIZE, end - start - HEADER_SIZE);
+        }
+        else
+        {
+            // 从后往前加密，每块后移2字节
+            ByteBuffer b = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+            for (int i = end - HEADER_SIZE - BLOCK_SIZE; i >= start; i -= BLOCK_SIZE)
+            {
+                cryptBlock(true, b, i, i + HEADER_SIZE);
+            }
+        }
+
+        buffer.put(start, (byte) (length >> 8));
+        buffer.put(start + 1, (byte) (length & 0xff));
+    }
+
+    /**
+     * 原地解密position到limit之间的数据，完成后limit指向明文末尾
+     */
+    public void decrypt(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = plainLength(buffer.get(start), buffer.get(start + 1),
+                buffer.remaining() - HEADER_SIZE);
+        int size = padded(length);
+        if (buffer.hasArray())
+        {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset() + start;
+            crypt(false, array, offset + HEADER_SIZE, array, offset + HEADER_SIZE, size);
+            System.arraycopy(array, offset + HEADER_SIZE, array, offset, length);
+        }
+        else
+        {
+            // 从前往后解密，每块前移2字节
+            ByteBuffer b = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+            for (int i = start; i < start + size; i += BLOCK_SIZE)
+            {
+                cryptBlock(false, b, i + HEADER_SIZE, i);
+            }
+        }
+
+        buffer.limit(start + length);
+    }
+
+    /**
+     * 加密输出流，数据长度须预先确定（写入数据头），关闭时补齐最后一块
+     */
+    public OutputStream encrypt(OutputStream out, int length) {
+        return new EncryptOutputStream(out, length);
+    }
+
+    /**
+     * 解密输入流
+     */
+    public InputStream decrypt(InputStream in) {
+        return new DecryptInputStream(in);
+    }
+
+    /**
+     * 补齐为块的整数倍
+     */
+    private static int padded(int length) {
+        return (length + BLOCK_SIZE - 1) & ~(BLOCK_SIZE - 1);
+    }
+
+    /**
+     * 计算明文长度（数据头只保存了长度的低16位，超过64K时按密文长度推算）
+     *
+     * @param size 密文长度
+     */
+    private static int plainLength(byte b0, byte b1, int size) {
+        if (size < 0 || size % BLOCK_SIZE != 0)
+        {
+            throw new IllegalArgumentException("Invalid cipher text length:" + size);
+        }
+
+        int length = (b0 & 0xff) << 8 | (b1 & 0xff);
+        int tail = length & (BLOCK_SIZE - 1);
+        length = tail == 0 ? size : size - BLOCK_SIZE + tail;
+        if (length < 0)
+        {
+            throw new IllegalArgumentException("Invalid cipher text length:" + size);
+        }
+
+        return length;
+    }
+
+    /**
+     * 设置并行加解密的数据长度阈值（默认不并行）
+     */
+    public static void setParallelThreshold(int threshold) {
+        parallelThreshold = Math.max(threshold, BLOCK_SIZE * PARALLELISM);
+    }
+
+    /**
+     * 加解密连续的块（块之间相互独立，数据量大时分段并行）
+     *
+     * @param length 块的整数倍，src与dst相同时位置须相同
+     */
+    private void crypt(final boolean encrypt, final byte[] src, int srcOffset,
+            final byte[] dst, int dstOffset, int length) {
+        if (length < parallelThreshold || PARALLELISM < 2)
+        {
+            cryptBlocks(encrypt, src, srcOffset, dst, dstOffset, length);
+            return;
+        }
+
+        int segment = padded(length / PARALLELISM);
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(PARALLELISM);
+        while (length > segment)
+        {
+            final int so = srcOffset;
+            final int dOffset = dstOffset;
+            final int len = segment;
+            futures.add(executor().submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    cryptBlocks(encrypt, src, so, dst, dOffset, len);
+                }
+            }));
+
+            srcOffset += segment;
+            dstOffset += segment;
+            length -= segment;
+        }
+
+        cryptBlocks(encrypt, src, srcOffset, dst, dstOffset, length);
+
+        boolean interrupted = false;
+        for (Future<?> future : futures)
+        {
+            while (true)
+            {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void cryptBlocks(boolean encrypt, byte[] src, int srcOffset, byte[] dst, int dstOffset,
+            int length) {
+        for (int end = srcOffset + length; srcOffset < end;
+             srcOffset += BLOCK_SIZE, dstOffset += BLOCK_SIZE)
+        {
+            if (encrypt)
+            {
+                encryptBlock(src, srcOffset, dst, dstOffset);
+            }
+            else
+            {
+                decryptBlock(src, srcOffset, dst, dstOffset);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null)
+        {
+            executor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Blowfish-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    /**
+     * 加解密缓冲区中的块（用于直接内存）
+     */
+    private void cryptBlock(boolean encrypt, ByteBuffer buffer, int srcIndex, int dstIndex) {
+        int xL = buffer.getInt(srcIndex);
+        int xR = buffer.getInt(srcIndex + 4);
+        if (encrypt)
+        {
+            xL ^= P[0];
+            for (int i = 1; i < ROUNDS; i += 2)
+            {
+                xR ^= F(xL) ^ P[i];
+                xL ^= F(xR) ^ P[i + 1];
+            }
+
+            xR ^= P[ROUNDS + 1];
+        }
+        else
+        {
+            xL ^= P[ROUNDS + 1];
+            for (int i = ROUNDS; i > 0; i -= 2)
+            {
+                xR ^= F(xL) ^ P[i];
+                xL ^= F(xR) ^ P[i - 1];
+            }
+
+            xR ^= P[0];
+        }
+
+        buffer.putInt(dstIndex, xR);
+        buffer.putInt(dstIndex + 4, xL);
+    }
+
+    /**
+     * 加密输出流
+     */
+    private final class EncryptOutputStream extends FilterOutputStream {
+
+        private final byte[] buf = new byte[STREAM_BUFFER_SIZE];
+        private int count;
+        private int header;                         // 缓冲区开头未写出的数据头长度
+
+        private final int length;                   // 数据总长度
+        private int written;                        // 已写入的长度
+        private boolean isClosed;
+
+        EncryptOutputStream(OutputStream out, int length) {
+            super(out);
+            if (length < 0)
+            {
+                throw new IllegalArgumentException("length must not be negative");
+            }
+
+            this.length = length;
+            if (length > 0)
+            {
+                // 与encrypt(byte[])一致，空数据不写数据头
+                buf[0] = (byte) (length >> 8);
+                buf[1] = (byte) (length & 0xff);
+                count = header = HEADER_SIZE;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if ((written += len) > length)
+            {
+                throw new IOException("Data is longer than " + length + " bytes");
+            }
+
+            while (len > 0)
+            {
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buf.length) flushBlocks();
+            }
+        }
+
+        /**
+         * 加密并写出完整的块，剩余数据移到缓冲区开头
+         */
+        private void flushBlocks() throws IOException {
+            int size = header + ((count - header) & ~(BLOCK_SIZE - 1));
+            if (size == 0)
+            {
+                return;
+            }
+
+            crypt(true, buf, header, buf, header, size - header);
+            out.write(buf, 0, size);
+            count -= size;
+            System.arraycopy(buf, size, buf, 0, count);
+            header = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBlocks();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (isClosed)
+            {
+                return;
+            }
+
+            isClosed = true;
+            try {
+                if (written != length)
+                {
+                    throw new IOException("Data is shorter than " + length + " bytes");
+                }
+
+                // 补齐最后一块
+                int end = header + padded(count - header);
+                Arrays.fill(buf, count, end, (byte) 0);
+                count = end;
+                flushBlocks();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 解密输入流
+     */
+    private final class DecryptInputStream extends FilterInputStream {
+
+        private final byte[] buf = new byte[STREAM_BUFFER_SIZE];
+        private int pos;                            // 明文读取位置
+        private int limit;                          // 明文结束位置（之后为未解密的密文）
+        private int count;                          // 缓冲区数据结束位置
+
+        private int tail = -1;                      // 最后一块的有效长度，未读取数据头时为-1
+        private boolean eof;
+
+        DecryptInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+            {
+                return 0;
+            }
+
+            while (pos == limit)
+            {
+                if (!fill()) return -1;
+            }
+
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] b = new byte[(int) Math.min(n, 512)];
+            long skipped = 0;
+            int len;
+            while (skipped < n && (len = read(b, 0, (int) Math.min(n - skipped, b.length))) != -1)
+            {
+                skipped += len;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return limit - pos;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * 读取并解密数据（保留最后一块直到确定数据结束，以便去掉补齐的字节）
+         *
+         * @return 是否还有数据
+         */
+        private boolean fill() throws IOException {
+            count -= limit;
+            System.arraycopy(buf, limit, buf, 0, count);
+            pos = limit = 0;
+            while (true)
+            {
+                if (!eof)
+                {
+                    int n = in.read(buf, count, buf.length - count);
+                    if (n == -1) eof = true; else count += n;
+                }
+
+                if (tail < 0)
+                {
+                    if (count < HEADER_SIZE)
+                    {
+                        if (!eof) continue;
+                        if (count == 0) return false;
+                        throw new EOFException();
+                    }
+
+                    tail = ((buf[0] & 0xff) << 8 | (buf[1] & 0xff)) & (BLOCK_SIZE - 1);
+                    if (tail == 0) tail = BLOCK_SIZE;
+                    count -= HEADER_SIZE;
+                    System.arraycopy(buf, HEADER_SIZE, buf, 0, count);
+                }
+
+                if (eof)
+                {
+                    if (count % BLOCK_SIZE != 0)
+                    {
+                        throw new IOException("Invalid cipher text length");
+                    }
+
+                    crypt(false, buf, 0, buf, 0, count);
+                    limit = count == 0 ? 0 : count - BLOCK_SIZE + tail;
+                    count = limit;
+                    return limit > 0;
+                }
+
+                // 保留最后一块
+                int size = ((count - 1) / BLOCK_SIZE) * BLOCK_SIZE;
+                if (size > 0)
+                {
+                    crypt(false, buf, 0, buf, 0, size);
+                    limit = size;
+                    return true;
+                }
+            }
+        }
+    }
+
     /**
      * 加密块
      */
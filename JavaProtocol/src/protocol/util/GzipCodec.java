@@ -0,0 +1,193 @@
+package protocol.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * GZIP压缩（与GZIPOutputStream格式兼容）<p>
+ * 每个线程复用Deflater/Inflater，避免每个信令包都分配和释放本地内存
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class GzipCodec implements ProtocolCodec {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final int FHCRC      = 2;        // 头部校验
+    private static final int FEXTRA     = 4;        // 扩展字段
+    private static final int FNAME      = 8;        // 文件名
+    private static final int FCOMMENT   = 16;       // 注释
+
+    private static final byte[] HEADER = {
+        (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final int TRAILER_LENGTH = 8;
+
+    static final int MAX_OUTPUT_SIZE = 64 * 1024 * 1024;   // 解压后最大长度，超出视为数据错误
+
+    private static final class Context {
+
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final Inflater inflater = new Inflater(true);
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[4096];
+    }
+
+    private static final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
+
+    @Override
+    public void compress(byte[] data, int offset, int length, OutputStream out) throws IOException {
+        Context context = contexts.get();
+        Deflater deflater = context.deflater;
+        byte[] buffer = context.buffer;
+        out.write(HEADER);
+
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        while (!deflater.finished())
+        {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+
+        CRC32 crc = context.crc;
+        crc.reset();
+        crc.update(data, offset, length);
+        writeInt(buffer, 0, (int) crc.getValue());
+        writeInt(buffer, 4, length);
+        out.write(buffer, 0, TRAILER_LENGTH);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        int pos = readHeader(data, offset, end);
+        if (end - pos < TRAILER_LENGTH)
+        {
+            throw new IOException("Corrupt GZIP trailer");
+        }
+
+        // 原始长度记录在尾部，不可信，只用于限制预分配，不足时再扩容
+        int size = readInt(data, end - 4);
+        if ((size & 0xffffffffL) > MAX_OUTPUT_SIZE)
+        {
+            throw new IOException("GZIP output too large:" + (size & 0xffffffffL));
+        }
+
+        byte[] output = new byte[(int) Math.min(size, Math.min(length * 4L,
+                ProtocolDecoder.DEFAULT_MAX_FRAME_SIZE))];
+
+        Context context = contexts.get();
+        Inflater inflater = context.inflater;
+        inflater.reset();
+        inflater.setInput(data, pos, end - TRAILER_LENGTH - pos);
+        int n = 0;
+        try {
+            while (!inflater.finished())
+            {
+                if (n == output.length)
+                {
+                    if (n >= MAX_OUTPUT_SIZE)
+                    {
+                        throw new IOException("GZIP output too large");
+                    }
+
+                    output = Arrays.copyOf(output, Math.min(Math.max(64, n << 1), MAX_OUTPUT_SIZE));
+                }
+
+                int count = inflater.inflate(output, n, output.length - n);
+                if (count == 0 && !inflater.finished()
+                && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new IOException("Unexpected end of ZLIB input stream");
+                }
+
+                n += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        CRC32 crc = context.crc;
+        crc.reset();
+        crc.update(output, 0, n);
+        if (readInt(data, end - TRAILER_LENGTH) != (int) crc.getValue() || size != n)
+        {
+            throw new IOException("Corrupt GZIP trailer");
+        }
+
+        return n == output.length ? output : Arrays.copyOf(output, n);
+    }
+
+    /**
+     * 跳过GZIP头部
+     *
+     * @return 压缩数据的起始位置
+     */
+    private static int readHeader(byte[] data, int pos, int end) throws IOException {
+        if (end - pos < HEADER.length
+        || (data[pos] & 0xff | (data[pos + 1] & 0xff) << 8) != GZIP_MAGIC
+        || data[pos + 2] != Deflater.DEFLATED)
+        {
+            throw new IOException("Not in GZIP format");
+        }
+
+        int flags = data[pos + 3] & 0xff;
+        pos += HEADER.length;
+        if ((flags & FEXTRA) != 0)
+        {
+            if (end - pos < 2) throw new IOException("Corrupt GZIP header");
+            pos += 2 + (data[pos] & 0xff | (data[pos + 1] & 0xff) << 8);
+        }
+
+        if ((flags & FNAME) != 0) pos = skipString(data, pos, end);
+        if ((flags & FCOMMENT) != 0) pos = skipString(data, pos, end);
+        if ((flags & FHCRC) != 0) pos += 2;
+        if (pos > end)
+        {
+            throw new IOException("Corrupt GZIP header");
+        }
+
+        return pos;
+    }
+
+    private static int skipString(byte[] data, int pos, int end) throws IOException {
+        while (pos < end)
+        {
+            if (data[pos++] == 0)
+            {
+                return pos;
+            }
+        }
+
+        throw new IOException("Corrupt GZIP header");
+    }
+
+    private static void writeInt(byte[] bs, int offset, int i) {
+        bs[offset]     = (byte) i;
+        bs[offset + 1] = (byte) (i >> 8);
+        bs[offset + 2] = (byte) (i >> 16);
+        bs[offset + 3] = (byte) (i >> 24);
+    }
+
+    private static int readInt(byte[] bs, int offset) {
+        return (bs[offset] & 0xff)
+            | (bs[offset + 1] & 0xff) << 8
+            | (bs[offset + 2] & 0xff) << 16
+            | (bs[offset + 3] & 0xff) << 24;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,261 @@
+package protocol.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * LZ77快速压缩（LZ4块格式）<p>
+ * 压缩率低于GZIP，但压缩和解压速度快得多，适合频繁发送的中等大小信令<br>
+ * 数据格式：原始长度（varint）+ LZ4块
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class LzCodec implements ProtocolCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_DISTANCE = 0xffff;
+    private static final int LAST_LITERALS = 5;         // 最后5个字节必须是字面量
+    private static final int MF_LIMIT = 12;             // 最后一个匹配须在结尾前12个字节开始
+    private static final int SKIP_TRIGGER = 6;          // 连续未匹配时逐渐加大步长
+
+    private static final int HASH_LOG = 12;
+
+    private static final ThreadLocal<int[]> hashTables = new ThreadLocal<int[]>() {
+
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    @Override
+    public void compress(byte[] data, int offset, int length, OutputStream out) throws IOException {
+        byte[] buffer = ProtocolBufferPool.obtain(5 + length + length / 255 + 16);
+        try {
+            int n = writeVarInt(buffer, 0, length);
+            n = compress(data, offset, length, buffer, n);
+            out.write(buffer, 0, n);
+        } finally {
+            ProtocolBufferPool.recycle(buffer);
+        }
+    }
+
+    /**
+     * @return 输出结束位置
+     */
+    private static int compress(byte[] src, int offset, int length, byte[] dst, int dp) {
+        int end = offset + length;
+        int anchor = offset;
+        if (length > MF_LIMIT)
+        {
+            int[] table = hashTables.get();
+            Arrays.fill(table, -1);
+
+            int limit = end - MF_LIMIT;
+            int matchLimit = end - LAST_LITERALS;
+            int i = offset;
+            int searches = 1 << SKIP_TRIGGER;
+            while (i < limit)
+            {
+                int seq = readInt(src, i);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = i;
+                if (ref < offset || i - ref > MAX_DISTANCE || readInt(src, ref) != seq)
+                {
+                    i += searches++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+
+                searches = 1 << SKIP_TRIGGER;
+                // 向前扩展
+                while (i > anchor && ref > offset && src[i - 1] == src[ref - 1])
+                {
+                    i--;
+                    ref--;
+                }
+
+                // 向后扩展
+                int matchLength = MIN_MATCH;
+                while (i + matchLength < matchLimit && src[i + matchLength] == src[ref + matchLength])
+                {
+                    matchLength++;
+                }
+
+                int token = dp;
+                dp = writeSequence(src, anchor, i - anchor, dst, dp);
+                dst[token] |= Math.min(matchLength - MIN_MATCH, 15);
+                dst[dp++] = (byte) (i - ref);
+                dst[dp++] = (byte) ((i - ref) >>> 8);
+                if (matchLength - MIN_MATCH >= 15)
+                {
+                    dp = writeLength(matchLength - MIN_MATCH - 15, dst, dp);
+                }
+
+                i += matchLength;
+                anchor = i;
+                if (i < limit)
+                {
+                    table[hash(readInt(src, i - 2))] = i - 2;
+                }
+            }
+        }
+
+        // 剩余字面量
+        return writeSequence(src, anchor, end - anchor, dst, dp);
+    }
+
+    /**
+     * 写入标记和字面量，匹配长度由调用者写入标记的低4位
+     */
+    private static int writeSequence(byte[] src, int literal, int literalLength, byte[] dst, int dp) {
+        int token = dp++;
+        dst[token] = (byte) (Math.min(literalLength, 15) << 4);
+        if (literalLength >= 15)
+        {
+            dp = writeLength(literalLength - 15, dst, dp);
+        }
+
+        System.arraycopy(src, literal, dst, dp, literalLength);
+        return dp + literalLength;
+    }
+
+    private static int writeLength(int length, byte[] dst, int dp) {
+        while (length >= 255)
+        {
+            dst[dp++] = (byte) 255;
+            length -= 255;
+        }
+
+        dst[dp++] = (byte) length;
+        return dp;
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int offset, int length) throws IOException {
+        int end = offset + length;
+        // 原始长度
+        int size = 0;
+        int sp = offset;
+        for (int shift = 0; ; shift += 7)
+        {
+            if (sp == end || shift > 28)
+            {
+                throw new IOException("Corrupt LZ data");
+            }
+
+            int b = src[sp++];
+            size |= (b & 0x7f) << shift;
+            if (b >= 0) break;
+        }
+
+        // 每个字节最多展开为255个字节
+        if (size < 0 || size > (long) length * 255)
+        {
+            throw new IOException("Corrupt LZ data");
+        }
+
+        byte[] dst = new byte[size];
+        int dp = 0;
+        while (true)
+        {
+            if (sp == end)
+            {
+                throw new IOException("Corrupt LZ data");
+            }
+
+            int token = src[sp++] & 0xff;
+            int literalLength = token >>> 4;
+            if (literalLength == 15)
+            {
+                int b;
+                do {
+                    if (sp == end) throw new IOException("Corrupt LZ data");
+                    literalLength += b = src[sp++] & 0xff;
+                } while (b == 255);
+            }
+
+            if (literalLength > end - sp || literalLength > size - dp)
+            {
+                throw new IOException("Corrupt LZ data");
+            }
+
+            System.arraycopy(src, sp, dst, dp, literalLength);
+            sp += literalLength;
+            dp += literalLength;
+            if (sp == end)
+            {
+                break;
+            }
+
+            if (end - sp < 2)
+            {
+                throw new IOException("Corrupt LZ data");
+            }
+
+            int distance = (src[sp] & 0xff) | (src[sp + 1] & 0xff) << 8;
+            sp += 2;
+            int matchLength = token & 0x0f;
+            if (matchLength == 15)
+            {
+                int b;
+                do {
+                    if (sp == end) throw new IOException("Corrupt LZ data");
+                    matchLength += b = src[sp++] & 0xff;
+                } while (b == 255);
+            }
+
+            matchLength += MIN_MATCH;
+            int ref = dp - distance;
+            if (distance == 0 || ref < 0 || matchLength > size - dp)
+            {
+                throw new IOException("Corrupt LZ data");
+            }
+
+            if (distance >= matchLength)
+            {
+                System.arraycopy(dst, ref, dst, dp, matchLength);
+                dp += matchLength;
+            }
+            else
+            {
+                // 重叠复制
+                for (int i = 0; i < matchLength; i++)
+                {
+                    dst[dp++] = dst[ref++];
+                }
+            }
+        }
+
+        if (dp != size)
+        {
+            throw new IOException("Corrupt LZ data");
+        }
+
+        return dst;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] bs, int offset) {
+        return (bs[offset] & 0xff)
+            | (bs[offset + 1] & 0xff) << 8
+            | (bs[offset + 2] & 0xff) << 16
+            | (bs[offset + 3] & 0xff) << 24;
+    }
+
+    private static int writeVarInt(byte[] bs, int offset, int i) {
+        while ((i & ~0x7f) != 0)
+        {
+            bs[offset++] = (byte) ((i & 0x7f) | 0x80);
+            i >>>= 7;
+        }
+
+        bs[offset++] = (byte) i;
+        return offset;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+package protocol.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 数据缓冲区缓存池<p>
+ * 功能：按2的幂分级复用byte数组与直接内存缓冲区，避免每个信令包分配新的数组
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class ProtocolBufferPool {
+
+    private static final int MIN_SHIFT = 6;                 // 最小64字节
+    private static final int MAX_SHIFT = 22;                // 最大4M
+
+    private static final int MAX_POOLED_BYTES = 4 * 1024 * 1024;    // 每一级最多缓存的字节数
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ConcurrentLinkedQueue<byte[]>[] pools
+    = new ConcurrentLinkedQueue[MAX_SHIFT + 1];
+    private static final AtomicInteger[] counts = new AtomicInteger[MAX_SHIFT + 1];
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ConcurrentLinkedQueue<ByteBuffer>[] directPools
+    = new ConcurrentLinkedQueue[MAX_SHIFT + 1];
+    private static final AtomicInteger[] directCounts = new AtomicInteger[MAX_SHIFT + 1];
+
+    static
+    {
+        for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++)
+        {
+            pools[i] = new ConcurrentLinkedQueue<byte[]>();
+            counts[i] = new AtomicInteger();
+            directPools[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            directCounts[i] = new AtomicInteger();
+        }
+    }
+
+    private static int shift(int size) {
+        return Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * 获取长度不小于size的数组（内容未清空）
+     */
+    public static byte[] obtain(int size) {
+        int shift = shift(size);
+        if (shift > MAX_SHIFT)
+        {
+            return new byte[size];
+        }
+
+        byte[] buffer = pools[shift].poll();
+        if (buffer == null)
+        {
+            return new byte[1 << shift];
+        }
+
+        counts[shift].decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * 归还由{@link #obtain(int)}获取的数组
+     */
+    public static void recycle(byte[] buffer) {
+        int length = buffer.length;
+        int shift = shift(length);
+        if (shift < MIN_SHIFT || shift > MAX_SHIFT || 1 << shift != length)
+        {
+            return;
+        }
+
+        if (counts[shift].incrementAndGet() <= Math.max(2, MAX_POOLED_BYTES >> shift))
+        {
+            pools[shift].offer(buffer);
+        }
+        else
+        {
+            counts[shift].decrementAndGet();
+        }
+    }
+
+    /**
+     * 获取容量不小于size的缓冲区（已清空）
+     *
+     * @param direct 是否使用直接内存（可直接写入SocketChannel，不需要再复制到系统缓冲区）
+     */
+    public static ByteBuffer obtainBuffer(int size, boolean direct) {
+        if (!direct)
+        {
+            return ByteBuffer.wrap(obtain(size));
+        }
+
+        int shift = shift(size);
+        if (shift > MAX_SHIFT)
+        {
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        ByteBuffer buffer = directPools[shift].poll();
+        if (buffer == null)
+        {
+            return ByteBuffer.allocateDirect(1 << shift);
+        }
+
+        directCounts[shift].decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 归还由{@link #obtainBuffer(int, boolean)}获取的缓冲区
+     */
+    public static void recycle(ByteBuffer buffer) {
+        if (!buffer.isDirect())
+        {
+            if (buffer.hasArray() && buffer.arrayOffset() == 0)
+            {
+                recycle(buffer.array());
+            }
+
+            return;
+        }
+
+        int capacity = buffer.capacity();
+        int shift = shift(capacity);
+        if (shift < MIN_SHIFT || shift > MAX_SHIFT || 1 << shift != capacity)
+        {
+            return;
+        }
+
+        if (directCounts[shift].incrementAndGet() <= Math.max(2, MAX_POOLED_BYTES >> shift))
+        {
+            directPools[shift].offer(buffer);
+        }
+        else
+        {
+            directCounts[shift].decrementAndGet();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,166 @@
+package protocol.util;
+
+import protocol.util.ProtocolWrapper.ProtocolEntity;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * 大数据分片接收<p>
+ * 功能：将{@link ProtocolChunkWriter}发送的分片按信令id依次写入输出流（如文件），不缓存全部数据<br>
+ * 非线程安全，每个连接使用一个实例，断开连接时调用{@link #reset()}
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class ProtocolChunkReceiver {
+
+    public static final int DEFAULT_MAX_STREAMS = 16;
+
+    /**
+     * 分片数据的去向
+     */
+    public interface Sink {
+
+        /**
+         * 收到第一个分片时调用
+         *
+         * @param length 数据总长度，未知时为-1
+         * @return 数据写入的输出流（接收完毕或失败后由接收器关闭）
+         */
+        OutputStream open(int msgId, long length) throws IOException;
+
+        /**
+         * 数据接收完毕（输出流已关闭）
+         */
+        void onComplete(int msgId);
+
+        /**
+         * 数据接收失败，如分片缺失或连接断开（输出流已关闭）
+         */
+        void onError(int msgId, Exception e);
+    }
+
+    private static final class Stream {
+
+        final OutputStream out;
+        final long length;
+        long received;
+        int index;                                  // 下一个分片序号
+
+        Stream(OutputStream out, long length) {
+            this.out = out;
+            this.length = length;
+        }
+    }
+
+    private final Sink sink;
+    private final int maxStreams;                   // 同时接收的最大数量
+
+    private final HashMap<Integer, Stream> streams = new HashMap<Integer, Stream>();
+
+    public ProtocolChunkReceiver(Sink sink) {
+        this(sink, DEFAULT_MAX_STREAMS);
+    }
+
+    public ProtocolChunkReceiver(Sink sink, int maxStreams) {
+        this.sink = sink;
+        this.maxStreams = maxStreams;
+    }
+
+    /**
+     * 处理收到的信令（数据错误只影响对应的分片流，通过{@link Sink#onError(int, Exception)}通知）
+     *
+     * @return 是否为分片信令（否则调用者按普通信令处理）
+     */
+    public boolean receive(ProtocolEntity entity) {
+        if (entity.getCmd() != ProtocolWrapper.CMD_CHUNK)
+        {
+            return false;
+        }
+
+        int msgId = entity.getMsgId();
+        try {
+            ByteBuffer buffer = entity.decodeBody();
+            int index = ProtocolSerializers.getVarInt(buffer);
+            boolean isLast = buffer.get() != 0;
+            Stream stream = streams.get(msgId);
+            if (index == 0)
+            {
+                if (stream != null)
+                {
+                    throw new IOException("Duplicate chunk stream:" + msgId);
+                }
+
+                if (streams.size() >= maxStreams)
+                {
+                    throw new IOException("Too many chunk streams");
+                }
+
+                long length = ProtocolSerializers.getVarLong(buffer) - 1;
+                streams.put(msgId, stream = new Stream(sink.open(msgId, length), length));
+            }
+            else if (stream == null)
+            {
+                // 第一个分片已失败，丢弃剩余分片
+                return true;
+            }
+            else if (index != stream.index)
+            {
+                throw new IOException("Missing chunk " + stream.index + " of stream " + msgId);
+            }
+
+            int n = buffer.remaining();
+            stream.received += n;
+            if (stream.length >= 0 && (stream.received > stream.length
+            || isLast && stream.received != stream.length))
+            {
+                throw new IOException("Chunk stream length mismatch:" + msgId);
+            }
+
+            stream.out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), n);
+            stream.index++;
+            if (isLast)
+            {
+                streams.remove(msgId);
+                stream.out.close();
+                sink.onComplete(msgId);
+            }
+        } catch (BufferUnderflowException e) {
+            fail(msgId, new EOFException());
+        } catch (Exception e) {
+            fail(msgId, e);
+        }
+
+        return true;
+    }
+
+    /**
+     * 放弃所有未接收完的数据（断开连接时调用）
+     */
+    public void reset() {
+        for (Integer msgId : new ArrayList<Integer>(streams.keySet()))
+        {
+            fail(msgId, new IOException("Connection reset"));
+        }
+    }
+
+    private void fail(int msgId, Exception e) {
+        Stream stream = streams.remove(msgId);
+        if (stream != null)
+        {
+            try {
+                stream.out.close();
+            } catch (IOException ex) {
+                // Ignore.
+            }
+        }
+
+        sink.onError(msgId, e);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package protocol.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * 大数据分片发送（如图片、音视频）<p>
+ * 功能：从输入流按固定大小读取数据，每次生成一个分片信令（指令码为{@link ProtocolWrapper#CMD_CHUNK}），
+ * 发送方在分片之间可以插入其他信令，聊天消息不会被大数据阻塞<br>
+ * 分片按信令id与普通信令关联，接收方使用{@link ProtocolChunkReceiver}写入输出流，双方都不需要缓存全部数据<br>
+ * 通过engine的SocketConnector发送时使用SocketChunkSender，每次只有一个分片在低优先级通道中排队<br>
+ * 非线程安全
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class ProtocolChunkWriter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    private final int msgId;                        // 分片所属信令的id
+    private final InputStream source;
+    private final long length;                      // 数据总长度，未知时为-1
+
+    private final byte[] chunk;
+    private int index;                              // 下一个分片序号
+    private long sent;                              // 已发送的数据长度
+    private boolean isFinished;
+
+    public ProtocolChunkWriter(int msgId, InputStream source, long length) {
+        this(msgId, source, length, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param length 数据总长度，未知时为-1（接收方无法预先检查）
+     * @param chunkSize 每个分片的数据长度，应明显小于接收方的信令包最大长度
+     */
+    public ProtocolChunkWriter(int msgId, InputStream source, long length, int chunkSize) {
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+
+        this.msgId = msgId;
+        this.source = source;
+        this.length = length;
+        chunk = new byte[chunkSize];
+    }
+
+    public boolean hasNext() {
+        return !isFinished;
+    }
+
+    /**
+     * 读取并编码下一个分片（不关闭输入流）
+     *
+     * @return 用法与{@link ProtocolWrapper#encode(ProtocolWrapper.ProtocolEntity, boolean)}相同，
+     * 发送完毕后调用{@link ProtocolWrapper#recycle(ByteBuffer)}归还
+     */
+    public ByteBuffer next(boolean direct) throws Exception {
+        if (isFinished)
+        {
+            throw new NoSuchElementException();
+        }
+
+        int n = 0;
+        int len;
+        while (n < chunk.length && (len = source.read(chunk, n, chunk.length - n)) != -1)
+        {
+            n += len;
+        }
+
+        sent += n;
+        if (length >= 0 && sent > length)
+        {
+            throw new IOException("Source is longer than " + length + " bytes");
+        }
+
+        // 读不满说明数据已结束（数据长度正好是分片大小的整数倍时最后发送一个空分片）
+        isFinished = n < chunk.length || sent == length;
+        if (isFinished && length >= 0 && sent != length)
+        {
+            throw new IOException("Source is shorter than " + length + " bytes");
+        }
+
+        return ProtocolWrapper.encodeChunk(msgId, index++, isFinished, length, chunk, 0, n, direct);
+    }
+}
\ No newline at end of file
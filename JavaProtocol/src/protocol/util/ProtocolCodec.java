@@ -0,0 +1,27 @@
+package protocol.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 信令数据体压缩算法<p>
+ * 通过{@link ProtocolWrapper#setCompressCodec(int, ProtocolCodec)}替换内置实现，
+ * 实现类需要线程安全，压缩格式须与对方一致
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public interface ProtocolCodec {
+
+    /**
+     * 压缩数据
+     *
+     * @param out 压缩数据写入输出流（不要关闭）
+     */
+    void compress(byte[] data, int offset, int length, OutputStream out) throws IOException;
+
+    /**
+     * 解压缩数据
+     */
+    byte[] decompress(byte[] data, int offset, int length) throws IOException;
+}
\ No newline at end of file
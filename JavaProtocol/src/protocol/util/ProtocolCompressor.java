@@ -0,0 +1,126 @@
+package protocol.util;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 信令数据体压缩策略<p>
+ * 功能：按加密压缩标志选择压缩算法，并按指令码统计压缩率，
+ * 压缩效果不好的指令跳过压缩（定期重新采样，数据特征变化后可恢复压缩）
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+final class ProtocolCompressor {
+
+    static final int CODEC_GZIP = 0x01;
+    static final int CODEC_LZ = 0x20;
+    static final int CODEC_MASK = CODEC_GZIP | CODEC_LZ;
+
+    private static final int MAX_RATIO = 900;              // 压缩后超过原大小的90%视为不值得压缩（千分比）
+    private static final int SAMPLE_INTERVAL = 32;         // 跳过压缩的指令每32个信令重新采样一次
+    private static final int MAX_STATS = 4096;             // 最多统计的指令数
+
+    static final int DEFAULT_COMPRESS_SIZE = 512;          // 默认超过此长度才压缩
+
+    private static volatile ProtocolCodec gzip = new GzipCodec();
+    private static volatile ProtocolCodec lz = new LzCodec();
+
+    private static volatile int threshold = DEFAULT_COMPRESS_SIZE;
+    private static volatile boolean isAdaptive = true;
+
+    private static final class Stat {
+
+        volatile int ratio;                                 // 平均压缩率（千分比）
+        int skipped;                                        // 跳过次数（不要求精确）
+    }
+
+    private static final ConcurrentHashMap<Integer, Stat> stats
+    = new ConcurrentHashMap<Integer, Stat>();
+
+    static ProtocolCodec getCodec(int codec) throws IOException {
+        switch (codec) {
+            case CODEC_GZIP:
+                return gzip;
+            case CODEC_LZ:
+                return lz;
+            default:
+                throw new IOException("Unknown codec:" + codec);
+        }
+    }
+
+    static void setCodec(int codec, ProtocolCodec impl) {
+        switch (codec) {
+            case CODEC_GZIP:
+                gzip = impl != null ? impl : new GzipCodec();
+                break;
+            case CODEC_LZ:
+                lz = impl != null ? impl : new LzCodec();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown codec:" + codec);
+        }
+    }
+
+    /**
+     * @param threshold 数据体超过此长度才压缩
+     * @param isAdaptive 是否按指令统计压缩率，跳过压缩效果不好的指令
+     */
+    static void setPolicy(int threshold, boolean isAdaptive) {
+        ProtocolCompressor.threshold = threshold;
+        ProtocolCompressor.isAdaptive = isAdaptive;
+        stats.clear();
+    }
+
+    /**
+     * 是否需要压缩
+     */
+    static boolean shouldCompress(int cmd, int length) {
+        if (length <= threshold)
+        {
+            return false;
+        }
+
+        if (!isAdaptive)
+        {
+            return true;
+        }
+
+        Stat stat = stats.get(cmd);
+        if (stat == null || stat.ratio <= MAX_RATIO)
+        {
+            return true;
+        }
+
+        // 采样
+        return ++stat.skipped % SAMPLE_INTERVAL == 0;
+    }
+
+    /**
+     * 记录压缩结果
+     *
+     * @return 压缩后数据是否更小（否则应发送原始数据）
+     */
+    static boolean record(int cmd, int length, int compressedLength) {
+        if (isAdaptive)
+        {
+            int ratio = (int) Math.min(1000L * compressedLength / length, 2000);
+            Stat stat = stats.get(cmd);
+            if (stat == null)
+            {
+                if (stats.size() >= MAX_STATS) stats.clear();
+                stat = new Stat();
+                stat.ratio = ratio;
+                Stat s = stats.putIfAbsent(cmd, stat);
+                if (s != null) stat = s;
+            }
+            else
+            {
+                // 指数加权平均
+                stat.ratio = (stat.ratio * 3 + ratio) >> 2;
+            }
+        }
+
+        return compressedLength < length;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+package protocol.util;
+
+import static protocol.util.ProtocolUtil.bytesToInt;
+
+import protocol.util.ProtocolWrapper.ProtocolEntity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 信令增量解析器（非阻塞）<p>
+ * 功能：接收任意切分的数据片段，解析出完整的信令包，适用于Selector等非阻塞场景<br>
+ * 信令包数据体使用缓存池中的数组，处理完毕后调用{@link ProtocolEntity#release()}归还<br>
+ * 封包信令（参见{@link ProtocolEnvelope}）自动拆分为多个信令<br>
+ * 非线程安全，每个连接使用一个实例
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class ProtocolDecoder {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+    private final int maxFrameSize;                 // 信令包最大长度（包含信令头）
+
+    private final byte[] header = new byte[ProtocolWrapper.HEADER_LENGTH];
+    private int headerRead;
+
+    private ProtocolEntity entity;                  // 正在读取数据体的信令包
+    private int bodyRead;
+
+    public ProtocolDecoder() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param maxFrameSize 信令包最大长度，超出时抛出异常（连接应关闭）
+     */
+    public ProtocolDecoder(int maxFrameSize) {
+        this.maxFrameSize = Math.max(ProtocolWrapper.HEADER_LENGTH, maxFrameSize);
+    }
+
+    /**
+     * 解析数据片段，不完整的数据保留到下次调用
+     *
+     * @param in 读取全部剩余数据
+     * @param out 解析出的信令包依次加入列表
+     * @return 解析出的信令包数量
+     */
+    public int decode(ByteBuffer in, List<ProtocolEntity> out) throws IOException {
+        int count = 0;
+        while (true)
+        {
+            if (entity == null && !readHeader(in))
+            {
+                break;
+            }
+
+            if (!readBody(in))
+            {
+                break;
+            }
+
+            ProtocolEntity entity = this.entity;
+            this.entity = null;
+            if (entity.cmd == ProtocolWrapper.CMD_ENVELOPE)
+            {
+                count += unpack(entity, out);
+            }
+            else
+            {
+                out.add(entity);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private boolean readHeader(ByteBuffer in) throws IOException {
+        int n = Math.min(in.remaining(), header.length - headerRead);
+        in.get(header, headerRead, n);
+        if ((headerRead += n) < header.length)
+        {
+            return false;
+        }
+
+        headerRead = 0;
+        int packageSize = bytesToInt(header, 0);
+        if (packageSize < header.length || packageSize > maxFrameSize)
+        {
+            throw new IOException("Invalid package size:" + packageSize);
+        }
+
+        ProtocolEntity entity = new ProtocolEntity();
+        entity.packageSize = packageSize;
+        entity.cmd = bytesToInt(header, 4);
+        entity.msgId = bytesToInt(header, 8);
+        entity.flag = header[12] & 0xff;
+        entity.body = ProtocolBufferPool.obtain(packageSize - header.length);
+        entity.isPooled = true;
+
+        this.entity = entity;
+        bodyRead = 0;
+        return true;
+    }
+
+    private boolean readBody(ByteBuffer in) {
+        int length = entity.packageSize - header.length;
+        int n = Math.min(in.remaining(), length - bodyRead);
+        in.get(entity.body, bodyRead, n);
+        return (bodyRead += n) == length;
+    }
+
+    private static int unpack(ProtocolEntity envelope, List<ProtocolEntity> out) throws IOException {
+        try {
+            return ProtocolEnvelope.unpack(envelope, out);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            envelope.release();
+        }
+    }
+
+    /**
+     * 丢弃未解析完的数据（重新连接时调用）
+     */
+    public void reset() {
+        if (entity != null)
+        {
+            entity.release();
+            entity = null;
+        }
+
+        headerRead = 0;
+        bodyRead = 0;
+    }
+}
\ No newline at end of file
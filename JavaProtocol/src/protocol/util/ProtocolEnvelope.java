@@ -0,0 +1,143 @@
+package protocol.util;
+
+import protocol.util.ProtocolRegistry.Negotiation;
+import protocol.util.ProtocolWrapper.ProtocolEntity;
+import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 信令封包<p>
+ * 功能：将多个小信令（各自保留信令id和指令码）合并为一个信令（指令码为{@link ProtocolWrapper#CMD_ENVELOPE}）发送，
+ * 只有一个信令头，只压缩和加密一次（压缩字典在信令之间共享），适用于群聊、输入状态等突发的小信令<br>
+ * 接收方的{@link ProtocolDecoder}自动拆包，使用{@link ProtocolWrapper#parse(java.io.InputStream)}时调用{@link #unpack(ProtocolEntity, List)}<br>
+ * 非线程安全
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class ProtocolEnvelope {
+
+    private static final int RECORD_FLAGS = 0x04 | 0x40;   // 每个信令允许的标志（类型编号，紧凑编码）
+
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private final Buffer records = new Buffer();
+    private final ProtocolDataOutputStream out = new ProtocolDataOutputStream(records);
+
+    private final Buffer record = new Buffer();
+    private final ProtocolDataOutputStream dos = new ProtocolDataOutputStream(record);
+
+    private int count;
+
+    /**
+     * 添加信令（立即序列化，之后修改数据不影响封包）
+     */
+    public ProtocolEnvelope add(ProtocolEntity entity) throws IOException {
+        return add(entity, null);
+    }
+
+    /**
+     * @param negotiation 连接的协商结果，参见{@link ProtocolRegistry#acceptTypeTable(ProtocolRegistry.TypeTable)}
+     */
+    public ProtocolEnvelope add(ProtocolEntity entity, Negotiation negotiation) throws IOException {
+        record.reset();
+        int flag = entity.writeType(dos, 0, negotiation);
+        if (ProtocolWrapper.isCompactEncoding(negotiation))
+        {
+            dos.setCompact(true);
+            flag |= 0x40;
+        }
+
+        try {
+            entity.data.write(dos);
+        } finally {
+            dos.setCompact(false);
+        }
+
+        // 指令码 + 信令id + 标志 + 长度 + 数据
+        out.writeInt(entity.cmd);
+        out.writeVarInt(entity.msgId);
+        out.write(flag);
+        out.writeVarInt(record.size());
+        out.write(record.array(), 0, record.size());
+        count++;
+        return this;
+    }
+
+    /**
+     * 信令数量
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * 压缩加密前的长度，调用者可据此决定何时发送
+     */
+    public int getLength() {
+        return records.size();
+    }
+
+    /**
+     * 编码为一个信令，成功后清空
+     *
+     * @return 用法与{@link ProtocolWrapper#encode(ProtocolEntity, boolean)}相同
+     */
+    public ByteBuffer encode(boolean direct) throws Exception {
+        ByteBuffer buffer = ProtocolWrapper.encode(ProtocolWrapper.CMD_ENVELOPE, 0, 0,
+                records.array(), 0, records.size(), direct);
+        records.reset();
+        count = 0;
+        return buffer;
+    }
+
+    /**
+     * 拆包（之后对每个信令调用{@link ProtocolEntity#parseBody()}）
+     *
+     * @param out 拆出的信令依次加入列表
+     * @return 拆出的信令数量
+     */
+    public static int unpack(ProtocolEntity envelope, List<ProtocolEntity> out) throws Exception {
+        ByteBuffer buffer = envelope.decodeBody();
+        ArrayList<ProtocolEntity> entities = new ArrayList<ProtocolEntity>();
+        try {
+            while (buffer.hasRemaining())
+            {
+                ProtocolEntity entity = new ProtocolEntity();
+                entity.cmd = buffer.getInt();
+                entity.msgId = ProtocolSerializers.getVarInt(buffer);
+                entity.flag = buffer.get() & 0xff;
+                int length = ProtocolSerializers.getVarInt(buffer);
+                if ((entity.flag & ~RECORD_FLAGS) != 0 || length < 0 || length > buffer.remaining())
+                {
+                    throw new IOException("Invalid envelope record");
+                }
+
+                buffer.get(entity.body = new byte[length]);
+                entity.packageSize = ProtocolWrapper.HEADER_LENGTH + length;
+                entities.add(entity);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+
+        out.addAll(entities);
+        return entities.size();
+    }
+}
\ No newline at end of file
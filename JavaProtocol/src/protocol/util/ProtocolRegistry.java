@@ -0,0 +1,334 @@
+package protocol.util;
+
+import protocol.socket.ErrorInfo;
+import protocol.socket.SimpleData;
+import protocol.socket.ack.MessageACK;
+import protocol.socket.ack.OfflineMessageACK;
+import protocol.socket.req.Message;
+import protocol.socket.req.OfflineMessage;
+import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolData;
+import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataInputStream;
+import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 协议数据类型注册表<p>
+ * 功能：用紧凑的类型编号代替类名传输，解析时直接调用工厂创建对象，不再反射加载类<br>
+ * 类型编号需与对方协商：双方交换{@link TypeTable}后，只有编号与类名都一致的类型才使用编号传输，
+ * 其余类型仍使用类名传输<br>
+ * 协商结果按连接保存在{@link Negotiation}中，编码时传入，不同版本的对方互不影响<br>
+ * 类型表同时声明本端支持的编码特性（如紧凑编码），旧版本会忽略
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class ProtocolRegistry {
+
+    /** 支持紧凑编码（加密压缩标志0x40） **/
+    static final int FEATURE_COMPACT = 0x01;
+
+    private static final int FEATURES = FEATURE_COMPACT;                    // 本端支持的特性
+
+    /**
+     * 数据对象工厂
+     */
+    public interface Factory {
+
+        ProtocolData newInstance();
+    }
+
+    private static final class Type {
+
+        final int typeId;
+        final String className;
+        final int cmd;                              // 由类名计算的指令码
+        final Factory factory;
+
+        Type(int typeId, String className, Factory factory) {
+            this.typeId = typeId;
+            this.className = className;
+            this.cmd = className.hashCode();
+            this.factory = factory;
+        }
+    }
+
+    private static final Object lock = new Object();
+
+    private static volatile Type[] types = new Type[0];                     // 按编号索引
+
+    private static volatile HashMap<Class<?>, Type> classes
+    = new HashMap<Class<?>, Type>();                                        // 写时复制
+
+    private static final ConcurrentHashMap<String, Factory> factories
+    = new ConcurrentHashMap<String, Factory>();                             // 按类名缓存的工厂
+
+    static
+    {
+        // 内置类型，编号与服务器保持一致，只能新增不能修改
+        register(1, SimpleData.class, new Factory() {
+
+            @Override
+            public ProtocolData newInstance() {
+                return new SimpleData();
+            }
+        });
+        register(2, ErrorInfo.class, new Factory() {
+
+            @Override
+            public ProtocolData newInstance() {
+                return new ErrorInfo(0);
+            }
+        });
+        register(3, Message.class, new Factory() {
+
+            @Override
+            public ProtocolData newInstance() {
+                return new Message();
+            }
+        });
+        register(4, MessageACK.class, new Factory() {
+
+            @Override
+            public ProtocolData newInstance() {
+                return new MessageACK();
+            }
+        });
+        register(5, OfflineMessage.class, new Factory() {
+
+            @Override
+            public ProtocolData newInstance() {
+                return new OfflineMessage();
+            }
+        });
+        register(6, OfflineMessageACK.class, new Factory() {
+
+            @Override
+            public ProtocolData newInstance() {
+                return new OfflineMessageACK();
+            }
+        });
+    }
+
+    /**
+     * 注册数据类型
+     *
+     * @param typeId 类型编号（正整数，越小编码越短）
+     */
+    public static void register(int typeId, Class<? extends ProtocolData> cls, Factory factory) {
+        if (typeId <= 0)
+        {
+            throw new IllegalArgumentException("typeId must be positive");
+        }
+
+        Type type = new Type(typeId, cls.getName(), factory);
+        synchronized (lock) {
+            Type[] types = ProtocolRegistry.types;
+            if (typeId < types.length && types[typeId] != null)
+            {
+                throw new IllegalArgumentException("Duplicate typeId:" + typeId);
+            }
+
+            if (typeId >= types.length)
+            {
+                Type[] newTypes = new Type[Math.max(typeId + 1, types.length * 2)];
+                System.arraycopy(types, 0, newTypes, 0, types.length);
+                types = newTypes;
+            }
+
+            types[typeId] = type;
+            HashMap<Class<?>, Type> classes = new HashMap<Class<?>, Type>(ProtocolRegistry.classes);
+            classes.put(cls, type);
+
+            ProtocolRegistry.types = types;
+            ProtocolRegistry.classes = classes;
+            factories.put(type.className, factory);
+        }
+    }
+
+    /**
+     * 获取指令码（已注册的类型使用缓存值）
+     */
+    static int getCmd(ProtocolData data) {
+        Type type = classes.get(data.getClass());
+        return type != null ? type.cmd : data.getClass().getName().hashCode();
+    }
+
+    /**
+     * 获取传输使用的类型编号
+     *
+     * @param negotiation 连接的协商结果，为null时使用类名传输
+     * @return 未注册或对方不支持时返回0，需使用类名传输
+     */
+    static int getWireTypeId(ProtocolData data, Negotiation negotiation) {
+        if (negotiation != null)
+        {
+            Type type = classes.get(data.getClass());
+            if (type != null && negotiation.supports(type.typeId))
+            {
+                return type.typeId;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * 按类型编号创建数据对象
+     */
+    static ProtocolData newInstance(int typeId) throws IOException {
+        Type[] types = ProtocolRegistry.types;
+        if (typeId <= 0 || typeId >= types.length || types[typeId] == null)
+        {
+            throw new IOException("Unknown typeId:" + typeId);
+        }
+
+        return types[typeId].factory.newInstance();
+    }
+
+    /**
+     * 按类型编号获取类名
+     */
+    static String getClassName(int typeId) throws IOException {
+        Type[] types = ProtocolRegistry.types;
+        if (typeId <= 0 || typeId >= types.length || types[typeId] == null)
+        {
+            throw new IOException("Unknown typeId:" + typeId);
+        }
+
+        return types[typeId].className;
+    }
+
+    /**
+     * 按类名创建数据对象（未注册的类型只在第一次反射加载）
+     */
+    static ProtocolData newInstance(String className) throws Exception {
+        Factory factory = factories.get(className);
+        if (factory == null)
+        {
+            final Class<? extends ProtocolData> cls = Class.forName(className)
+                    .asSubclass(ProtocolData.class);
+            factory = new Factory() {
+
+                @Override
+                public ProtocolData newInstance() {
+                    try {
+                        return cls.newInstance();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+
+            Factory f = factories.putIfAbsent(className, factory);
+            if (f != null) factory = f;
+        }
+
+        return factory.newInstance();
+    }
+
+    /**
+     * 生成本端的类型表，连接建立后发送给对方
+     */
+    public static TypeTable newTypeTable() {
+        TypeTable table = new TypeTable();
+        table.features = FEATURES;
+        for (Type type : types)
+        {
+            if (type != null)
+            {
+                table.typeIds.add(type.typeId);
+                table.classNames.add(type.className);
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * 收到对方的类型表，之后编号与类名都一致的类型使用编号传输
+     *
+     * @return 该连接的协商结果，编码时传入，连接断开后丢弃（对方版本可能变化）
+     */
+    public static Negotiation acceptTypeTable(TypeTable table) {
+        Type[] types = ProtocolRegistry.types;
+        boolean[] negotiated = new boolean[types.length];
+        for (int i = 0, n = table.typeIds.size(); i < n; i++)
+        {
+            int typeId = table.typeIds.get(i);
+            if (typeId > 0 && typeId < types.length && types[typeId] != null
+            && types[typeId].className.equals(table.classNames.get(i)))
+            {
+                negotiated[typeId] = true;
+            }
+        }
+
+        return new Negotiation(negotiated, table.features);
+    }
+
+    /**
+     * 与对方的协商结果（每个连接一个实例，不可修改，线程安全）
+     */
+    public static final class Negotiation {
+
+        private final boolean[] typeIds;            // 对方支持的编号
+        private final int features;                 // 对方支持的特性
+
+        Negotiation(boolean[] typeIds, int features) {
+            this.typeIds = typeIds;
+            this.features = features;
+        }
+
+        boolean supports(int typeId) {
+            return typeId < typeIds.length && typeIds[typeId];
+        }
+
+        /**
+         * 对方是否支持紧凑编码
+         */
+        boolean isCompact() {
+            return (features & FEATURE_COMPACT) != 0;
+        }
+    }
+
+    /**
+     * 类型表（协商数据包，始终使用类名传输）
+     */
+    public static final class TypeTable implements ProtocolData {
+
+        final ArrayList<Integer> typeIds = new ArrayList<Integer>();
+        final ArrayList<String> classNames = new ArrayList<String>();
+        int features;                               // 追加在最后，旧版本不会读取
+
+        @Override
+        public void write(ProtocolDataOutputStream dos) throws IOException {
+            int num = typeIds.size();
+            dos.writeVarInt(num);
+            for (int i = 0; i < num; i++)
+            {
+                dos.writeVarInt(typeIds.get(i));
+                dos.writeUTF(classNames.get(i));
+            }
+
+            dos.writeVarInt(features);
+        }
+
+        @Override
+        public void read(ProtocolDataInputStream dis) throws IOException {
+            int num = dis.readVarInt();
+            for (int i = 0; i < num; i++)
+            {
+                typeIds.add(dis.readVarInt());
+                classNames.add(dis.readUTF());
+            }
+
+            if (dis.available() > 0)
+            {
+                features = dis.readVarInt();
+            }
+        }
+    }
+}
\ No newline at end of file
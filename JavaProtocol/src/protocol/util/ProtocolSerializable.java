@@ -0,0 +1,46 @@
+package protocol.util;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记需要生成序列化代码的协议数据类<p>
+ * 编译时由注解处理器按字段声明顺序（父类字段在前）生成{@code 类名Serializer}，
+ * 跳过static和transient字段，格式与{@link ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream}一致：
+ * <ul>
+ * <li>基本类型：与DataOutputStream相同
+ * <li>String：与writeString相同
+ * <li>数组：int长度 + 元素（null写入长度0）
+ * <li>标记了此注解的数据类：boolean是否为null + 字段（数组元素不写入是否为null）
+ * </ul>
+ * 紧凑编码时int/long使用zigzag varint，字符串和数组长度使用varint，
+ * 可用{@link Timestamp}和{@link Shared}标记字段进一步压缩<br>
+ * 字段须对同一个包可见，数据类须有无参构造函数（作为数组元素或字段时）
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface ProtocolSerializable {
+
+    /**
+     * 时间戳字段（long），紧凑编码时写入与同一信令中上一个时间戳的差值
+     */
+    @Documented
+    @Retention(RetentionPolicy.CLASS)
+    @Target(ElementType.FIELD)
+    @interface Timestamp {}
+
+    /**
+     * 经常重复的字符串字段（如账号），紧凑编码时同一信令中只写入一次
+     */
+    @Documented
+    @Retention(RetentionPolicy.CLASS)
+    @Target(ElementType.FIELD)
+    @interface Shared {}
+}
\ No newline at end of file
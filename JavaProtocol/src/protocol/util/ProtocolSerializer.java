@@ -0,0 +1,34 @@
+package protocol.util;
+
+import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolData;
+import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataInputStream;
+import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 协议数据序列化接口（由注解处理器为{@link ProtocolSerializable}标记的类生成）<p>
+ * 直接读写ByteBuffer时预先计算长度，整个数据只检查一次缓冲区容量
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public interface ProtocolSerializer<T extends ProtocolData> {
+
+    /**
+     * 计算序列化后的长度
+     */
+    int sizeOf(T data) throws IOException;
+
+    /**
+     * 写入缓冲区，调用者须保证剩余空间不小于{@link #sizeOf(ProtocolData)}
+     */
+    void write(T data, ByteBuffer buffer);
+
+    void read(T data, ByteBuffer buffer) throws IOException;
+
+    void write(T data, ProtocolDataOutputStream dos) throws IOException;
+
+    void read(T data, ProtocolDataInputStream dis) throws IOException;
+}
\ No newline at end of file
@@ -0,0 +1,280 @@
+package protocol.util;
+
+import protocol.util.ProtocolWrapper.ProtocolEntity.ProtocolData;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 生成的序列化代码使用的工具方法<p>
+ * 字符串格式与DataOutputStream.writeUTF相同（modified UTF-8，2字节长度）
+ *
+ * @author Daimon
+ * @since 6/6/2014
+ */
+public final class ProtocolSerializers {
+
+    private static final Object NONE = new Object();
+
+    private static final ConcurrentHashMap<Class<?>, Object> serializers
+    = new ConcurrentHashMap<Class<?>, Object>();
+
+    /**
+     * 查找生成的序列化类（只匹配类本身，子类需单独标记）
+     *
+     * @return 未生成时返回null
+     */
+    @SuppressWarnings("unchecked")
+    static ProtocolSerializer<ProtocolData> get(Class<?> cls) {
+        Object serializer = serializers.get(cls);
+        if (serializer == null)
+        {
+            serializer = NONE;
+            try {
+                Class<?> c = Class.forName(cls.getName().replace('$', '_') + "Serializer",
+                        true, cls.getClassLoader());
+                if (ProtocolSerializer.class.isAssignableFrom(c))
+                {
+                    serializer = c.getField("INSTANCE").get(null);
+                }
+            } catch (Exception e) {
+                // Not generated.
+            }
+
+            serializers.putIfAbsent(cls, serializer);
+        }
+
+        return serializer != NONE ? (ProtocolSerializer<ProtocolData>) serializer : null;
+    }
+
+    /**
+     * 字符串序列化后的长度（包含是否为null的标志）
+     */
+    public static int sizeOf(String str) throws UTFDataFormatException {
+        return str == null ? 1 : 1 + sizeOfUTF(str);
+    }
+
+    /**
+     * 字符串序列化后的长度（包含2字节长度）
+     */
+    public static int sizeOfUTF(String str) throws UTFDataFormatException {
+        int length = str.length();
+        int utfLength = length;
+        for (int i = 0; i < length; i++)
+        {
+            int c = str.charAt(i);
+            if (c >= 0x80 || c == 0)
+            {
+                utfLength += c >= 0x800 ? 2 : 1;
+            }
+        }
+
+        if (utfLength > 65535)
+        {
+            throw new UTFDataFormatException("encoded string too long: " + utfLength + " bytes");
+        }
+
+        return 2 + utfLength;
+    }
+
+    public static void putString(ByteBuffer buffer, String str) {
+        if (str == null)
+        {
+            buffer.put((byte) 0);
+        }
+        else
+        {
+            buffer.put((byte) 1);
+            putUTF(buffer, str);
+        }
+    }
+
+    /**
+     * 写入字符串，调用者须先通过{@link #sizeOfUTF(String)}检查长度
+     */
+    public static void putUTF(ByteBuffer buffer, String str) {
+        int start = buffer.position();
+        if (buffer.hasArray())
+        {
+            // 直接写入数组
+            int offset = buffer.arrayOffset();
+            int pos = encodeUTF(str, buffer.array(), offset + start + 2);
+            buffer.position(pos - offset);
+            buffer.putShort(start, (short) (pos - offset - start - 2));
+            return;
+        }
+
+        buffer.position(start + 2);
+        for (int i = 0, length = str.length(); i < length; i++)
+        {
+            int c = str.charAt(i);
+            if (c > 0 && c < 0x80)
+            {
+                buffer.put((byte) c);
+            }
+            else if (c < 0x800)
+            {
+                buffer.put((byte) (0xc0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            }
+            else
+            {
+                buffer.put((byte) (0xe0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            }
+        }
+
+        buffer.putShort(start, (short) (buffer.position() - start - 2));
+    }
+
+    /**
+     * 按modified UTF-8编码写入数组（不含长度），数组须有足够空间
+     *
+     * @return 写入结束位置
+     */
+    static int encodeUTF(String str, byte[] array, int pos) {
+        for (int i = 0, length = str.length(); i < length; i++)
+        {
+            int c = str.charAt(i);
+            if (c > 0 && c < 0x80)
+            {
+                array[pos++] = (byte) c;
+            }
+            else if (c < 0x800)
+            {
+                array[pos++] = (byte) (0xc0 | c >> 6);
+                array[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+            else
+            {
+                array[pos++] = (byte) (0xe0 | c >> 12);
+                array[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                array[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+
+        return pos;
+    }
+
+    public static String getString(ByteBuffer buffer) throws IOException {
+        return buffer.get() != 0 ? getUTF(buffer) : null;
+    }
+
+    public static String getUTF(ByteBuffer buffer) throws IOException {
+        int utfLength = buffer.getShort() & 0xffff;
+        if (utfLength > buffer.remaining())
+        {
+            throw new UTFDataFormatException("malformed input: string length " + utfLength);
+        }
+
+        return decodeUTF(buffer, utfLength);
+    }
+
+    /**
+     * 读取modified UTF-8编码的字符串（不含长度）
+     */
+    static String decodeUTF(ByteBuffer buffer, int utfLength) throws IOException {
+        char[] chars = new char[utfLength];
+        int count = 0;
+        int end = buffer.position() + utfLength;
+        while (buffer.position() < end)
+        {
+            int c = buffer.get() & 0xff;
+            if (c < 0x80)
+            {
+                chars[count++] = (char) c;
+            }
+            else if ((c & 0xe0) == 0xc0)
+            {
+                if (buffer.position() + 1 > end)
+                {
+                    throw new UTFDataFormatException("malformed input: partial character at end");
+                }
+
+                int c2 = buffer.get();
+                if ((c2 & 0xc0) != 0x80)
+                {
+                    throw new UTFDataFormatException("malformed input around byte " + buffer.position());
+                }
+
+                chars[count++] = (char) ((c & 0x1f) << 6 | c2 & 0x3f);
+            }
+            else if ((c & 0xf0) == 0xe0)
+            {
+                if (buffer.position() + 2 > end)
+                {
+                    throw new UTFDataFormatException("malformed input: partial character at end");
+                }
+
+                int c2 = buffer.get();
+                int c3 = buffer.get();
+                if ((c2 & 0xc0) != 0x80 || (c3 & 0xc0) != 0x80)
+                {
+                    throw new UTFDataFormatException("malformed input around byte " + buffer.position());
+                }
+
+                chars[count++] = (char) ((c & 0x0f) << 12 | (c2 & 0x3f) << 6 | c3 & 0x3f);
+            }
+            else
+            {
+                throw new UTFDataFormatException("malformed input around byte " + buffer.position());
+            }
+        }
+
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * 读取数组长度
+     *
+     * @param minSize 每个元素的最小长度，用于检查数据是否被篡改
+     */
+    public static int getCount(ByteBuffer buffer, int minSize) throws IOException {
+        int count = buffer.getInt();
+        if (count > 0 && minSize > 0 && count > buffer.remaining() / minSize)
+        {
+            throw new IOException("Invalid array length:" + count);
+        }
+
+        return count;
+    }
+
+    /**
+     * 读取{@link ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream#writeVarInt(int)}写入的整数
+     */
+    static int getVarInt(ByteBuffer buffer) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7)
+        {
+            int b = buffer.get() & 0xff;
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return v;
+            }
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * 读取{@link ProtocolWrapper.ProtocolEntity.ProtocolDataOutputStream#writeVarLong(long)}写入的整数
+     */
+    static long getVarLong(ByteBuffer buffer) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 70; shift += 7)
+        {
+            int b = buffer.get() & 0xff;
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return v;
+            }
+        }
+
+        throw new IOException("Malformed varint");
+    }
+}
\ No newline at end of file
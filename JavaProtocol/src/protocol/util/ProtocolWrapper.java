@@ -3,17 +3,30 @@ package protocol.util;
 import static protocol.util.ProtocolUtil.bytesToInt;
 import static protocol.util.ProtocolUtil.intToBytes;
 
+import protocol.util.ProtocolRegistry.Negotiation;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
@@ -25,15 +38,103 @@ import javax.crypto.spec.SecretKeySpec;
  */
 public final class ProtocolWrapper {
     
-    private static final int HEADER_LENGTH = 13;
-    
+    static final int HEADER_LENGTH = 13;
+
+    static final int MAX_SHARED_STRINGS = 1024;             // 紧凑编码时每个信令最多共享的字符串数
+
+    /** 分片信令的指令码（保留，参见{@link ProtocolChunkWriter}） **/
+    public static final int CMD_CHUNK = Integer.MIN_VALUE;
+
+    /** 封包信令的指令码（保留，参见{@link ProtocolEnvelope}） **/
+    public static final int CMD_ENVELOPE = Integer.MIN_VALUE + 1;
+
+    /** AES/ECB加密（默认，兼容旧版本） **/
+    public static final int ENCRYPT_AES_ECB = ProtocolUtil.CIPHER_AES_ECB;
+
+    /** AES/GCM认证加密（每包随机IV，可校验数据完整性） **/
+    public static final int ENCRYPT_AES_GCM = ProtocolUtil.CIPHER_AES_GCM;
+
+    /** AES/CTR流加密（每包随机IV，无填充） **/
+    public static final int ENCRYPT_AES_CTR = ProtocolUtil.CIPHER_AES_CTR;
+
+    /** GZIP压缩（默认，兼容旧版本） **/
+    public static final int COMPRESS_GZIP = ProtocolCompressor.CODEC_GZIP;
+
+    /** LZ快速压缩（压缩率较低，速度快） **/
+    public static final int COMPRESS_LZ = ProtocolCompressor.CODEC_LZ;
+
     // 通讯协议数据包加解密的密钥
     private static byte[] protocolEncryptKey;
-    
+
+    // 加密方式（解密时根据加密压缩标志识别）
+    private static int protocolEncryptMode = ENCRYPT_AES_ECB;
+
     public static void setEncryptSecret(byte[] key) {
+        setEncryptSecret(key, ENCRYPT_AES_ECB);
+    }
+
+    /**
+     * @param mode 加密方式，参见{@link #ENCRYPT_AES_ECB}等常量
+     */
+    public static void setEncryptSecret(byte[] key, int mode) {
+        if (mode != ENCRYPT_AES_ECB && mode != ENCRYPT_AES_GCM && mode != ENCRYPT_AES_CTR)
+        {
+            throw new IllegalArgumentException("Unknown encrypt mode:" + mode);
+        }
+
+        protocolEncryptMode = mode;
         protocolEncryptKey = key;
     }
-    
+
+    // 压缩算法（解压缩时根据加密压缩标志识别）
+    private static int protocolCompressCodec = COMPRESS_GZIP;
+
+    /**
+     * @param codec 压缩算法，参见{@link #COMPRESS_GZIP}等常量
+     */
+    public static void setCompressCodec(int codec) {
+        if (codec != COMPRESS_GZIP && codec != COMPRESS_LZ)
+        {
+            throw new IllegalArgumentException("Unknown compress codec:" + codec);
+        }
+
+        protocolCompressCodec = codec;
+    }
+
+    /**
+     * 替换压缩算法的实现（如使用本地库），为null时恢复内置实现
+     *
+     * @param codec 压缩算法对应的标志，参见{@link #COMPRESS_GZIP}等常量
+     */
+    public static void setCompressCodec(int codec, ProtocolCodec impl) {
+        ProtocolCompressor.setCodec(codec, impl);
+    }
+
+    /**
+     * 设置压缩策略（默认超过{@value ProtocolCompressor#DEFAULT_COMPRESS_SIZE}字节压缩，并自动跳过压缩效果不好的指令）
+     *
+     * @param threshold 数据体超过此长度才压缩
+     * @param isAdaptive 是否按指令统计压缩率，跳过压缩效果不好的指令
+     */
+    public static void setCompressPolicy(int threshold, boolean isAdaptive) {
+        ProtocolCompressor.setPolicy(threshold, isAdaptive);
+    }
+
+    // 是否使用紧凑编码（还需对方在类型表中声明支持）
+    private static volatile boolean isCompactEnabled = true;
+
+    /**
+     * 设置是否使用紧凑编码（varint整数、时间戳差值、共享字符串），
+     * 只对在类型表中声明支持的连接生效（编码时传入{@link ProtocolRegistry#acceptTypeTable(ProtocolRegistry.TypeTable)}返回的协商结果）
+     */
+    public static void setCompactEncoding(boolean enable) {
+        isCompactEnabled = enable;
+    }
+
+    static boolean isCompactEncoding(Negotiation negotiation) {
+        return isCompactEnabled && negotiation != null && negotiation.isCompact();
+    }
+
     public static byte[] wrap(ProtocolEntity entity) throws IOException {
         if (entity.body == null)
         {
@@ -51,16 +152,337 @@ public final class ProtocolWrapper {
         intToBytes(entity.msgId, header, offset);
         offset += 4;    // 4位，信令id
         header[offset] = (byte) entity.flag;
-        offset++;       // 1位，加密压缩标志，0x01压缩，0x02加密
+        offset++;       // 1位，加密压缩标志，0x01压缩，0x02加密，0x04类型编号，0x08/0x10加密方式，0x20LZ压缩，0x40紧凑编码，0x80路由扩展
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(entity.packageSize);
         baos.write(header);
         // Body
-        baos.write(entity.body);
+        baos.write(entity.body, 0, entity.packageSize - HEADER_LENGTH);
         return baos.toByteArray();
     }
 
+    /**
+     * 每个线程复用的编码流
+     */
+    private static final class FrameEncoder {
+        
+        final ByteBufferOutputStream out = new ByteBufferOutputStream();
+        final ProtocolEntity.ProtocolDataOutputStream dos
+        = new ProtocolEntity.ProtocolDataOutputStream(out);
+        
+        final ByteBufferOutputStream compressOut = new ByteBufferOutputStream();
+    }
+    
+    private static final ThreadLocal<FrameEncoder> encoders = new ThreadLocal<FrameEncoder>() {
+        
+        @Override
+        protected FrameEncoder initialValue() {
+            return new FrameEncoder();
+        }
+    };
+    
+    private static final int INITIAL_FRAME_SIZE = 1024;
+    
+    /**
+     * 将信令直接编码到缓存池的缓冲区中（不需要调用{@link ProtocolEntity#generateBody()}）<p>
+     * 数据体序列化后紧跟在预留的信令头（及加密IV）之后，压缩和原地加密完成后再回填信令头，
+     * 除压缩外不产生中间数组<br>
+     * 返回的缓冲区可直接写入SocketChannel，发送完毕后调用{@link #recycle(ByteBuffer)}归还
+     * 
+     * @param direct 是否使用直接内存
+     * @return position为0，limit为信令包大小
+     */
+    public static ByteBuffer encode(ProtocolEntity entity, boolean direct) throws Exception {
+        return encode(entity, null, direct);
+    }
+
+    /**
+     * @param negotiation 连接的协商结果，参见{@link ProtocolRegistry#acceptTypeTable(ProtocolRegistry.TypeTable)}
+     * @see #encode(ProtocolEntity, boolean)
+     */
+    public static ByteBuffer encode(ProtocolEntity entity, Negotiation negotiation, boolean direct)
+            throws Exception {
+        FrameEncoder encoder = encoders.get();
+        ByteBufferOutputStream out = encoder.out;
+        out.buffer = ProtocolBufferPool.obtainBuffer(INITIAL_FRAME_SIZE, direct);
+        try {
+            byte[] key = protocolEncryptKey;
+            int mode = protocolEncryptMode;
+            int flag = 0;
+            int start = HEADER_LENGTH;
+            if (entity.routeKey != null)
+            {
+                // 路由扩展
+                int routeLength = ProtocolSerializers.sizeOfUTF(entity.routeKey);
+                out.buffer.position(start);
+                out.ensureCapacity(routeLength);
+                ProtocolSerializers.putUTF(out.buffer, entity.routeKey);
+                start += routeLength;
+                flag |= 0x80;
+            }
+
+            // 预留加密IV
+            int offset = start + (key != null ? ProtocolUtil.ivLength(mode) : 0);
+            out.buffer.position(offset);
+            flag = entity.writeType(encoder.dos, flag, negotiation);
+            ProtocolSerializer<ProtocolEntity.ProtocolData> serializer;
+            if (isCompactEncoding(negotiation))
+            {
+                // 紧凑编码需要按信令维护状态，只能使用数据流
+                encoder.dos.setCompact(true);
+                try {
+                    entity.data.write(encoder.dos);
+                } finally {
+                    encoder.dos.setCompact(false);
+                }
+
+                flag |= 0x40;
+            }
+            else if ((serializer = ProtocolSerializers.get(entity.data.getClass())) != null)
+            {
+                // 预先计算长度，只检查一次容量
+                out.ensureCapacity(serializer.sizeOf(entity.data));
+                serializer.write(entity.data, out.buffer);
+            }
+            else
+            {
+                entity.data.write(encoder.dos);
+            }
+
+            ByteBuffer buffer = finish(encoder, entity.cmd, entity.msgId, flag, key, mode, start, offset);
+            entity.packageSize = buffer.limit();
+            entity.flag = buffer.get(12) & 0xff;
+            return buffer;
+        } finally {
+            out.recycle();
+        }
+    }
+
+    /**
+     * 编码已序列化的数据体（用于信令封包，参见{@link ProtocolEnvelope}）
+     */
+    static ByteBuffer encode(int cmd, int msgId, int flag, byte[] body, int bodyOffset, int bodyLength,
+            boolean direct) throws Exception {
+        FrameEncoder encoder = encoders.get();
+        ByteBufferOutputStream out = encoder.out;
+        out.buffer = ProtocolBufferPool.obtainBuffer(HEADER_LENGTH + 48 + bodyLength, direct);
+        try {
+            byte[] key = protocolEncryptKey;
+            int mode = protocolEncryptMode;
+            int offset = HEADER_LENGTH + (key != null ? ProtocolUtil.ivLength(mode) : 0);
+            out.buffer.position(offset);
+            out.write(body, bodyOffset, bodyLength);
+            return finish(encoder, cmd, msgId, flag, key, mode, HEADER_LENGTH, offset);
+        } finally {
+            out.recycle();
+        }
+    }
+
+    /**
+     * 压缩并原地加密缓冲区中offset之后的数据体，回填信令头
+     *
+     * @param start 数据体（包含加密IV）开始位置
+     * @param offset 序列化数据开始位置
+     */
+    private static ByteBuffer finish(FrameEncoder encoder, int cmd, int msgId, int flag,
+            byte[] key, int mode, int start, int offset) throws IOException {
+        ByteBufferOutputStream out = encoder.out;
+        int length = out.buffer.position() - offset;
+        if (ProtocolCompressor.shouldCompress(cmd, length))
+        {
+            // 压缩
+            int codec = protocolCompressCodec;
+            int compressedLength = compress(encoder, codec, cmd, offset, length);
+            if (compressedLength >= 0)
+            {
+                length = compressedLength;
+                flag |= codec;
+            }
+        }
+
+        if (key != null)
+        {
+            int encryptedLength = encrypt(out, key, mode, start, offset, length);
+            if (encryptedLength >= 0)
+            {
+                length = encryptedLength;
+                flag |= mode;
+            }
+        }
+
+        return detach(out, start + length, cmd, msgId, flag);
+    }
+
+    /**
+     * 编码分片信令（数据不压缩）
+     *
+     * @param msgId 分片所属信令的id
+     * @param length 数据总长度（只在第一个分片中发送），未知时为-1
+     */
+    static ByteBuffer encodeChunk(int msgId, int index, boolean isLast, long length,
+            byte[] data, int dataOffset, int dataLength, boolean direct) throws Exception {
+        FrameEncoder encoder = encoders.get();
+        ByteBufferOutputStream out = encoder.out;
+        out.buffer = ProtocolBufferPool.obtainBuffer(HEADER_LENGTH + 48 + dataLength, direct);
+        try {
+            byte[] key = protocolEncryptKey;
+            int mode = protocolEncryptMode;
+            int offset = HEADER_LENGTH + (key != null ? ProtocolUtil.ivLength(mode) : 0);
+            out.buffer.position(offset);
+            // 分片序号 + 是否最后一个分片 + 数据总长度 + 数据
+            encoder.dos.writeVarInt(index);
+            encoder.dos.writeBoolean(isLast);
+            if (index == 0) encoder.dos.writeVarLong(length + 1);
+            encoder.dos.write(data, dataOffset, dataLength);
+
+            int flag = 0;
+            int bodyLength = out.buffer.position() - offset;
+            if (key != null)
+            {
+                int encryptedLength = encrypt(out, key, mode, HEADER_LENGTH, offset, bodyLength);
+                if (encryptedLength >= 0)
+                {
+                    bodyLength = encryptedLength;
+                    flag |= mode;
+                }
+            }
+
+            return detach(out, HEADER_LENGTH + bodyLength, CMD_CHUNK, msgId, flag);
+        } finally {
+            out.recycle();
+        }
+    }
+
+    /**
+     * 原地加密，失败时保留原始数据
+     *
+     * @param start IV写入位置
+     * @param offset 明文位置
+     * @return 加密后的长度，失败时返回-1
+     */
+    private static int encrypt(ByteBufferOutputStream out, byte[] key, int mode,
+            int start, int offset, int length) {
+        try {
+            return ProtocolUtil.encrypt(mode, key, out, start, length);
+        } catch (Exception e) {
+            // Keep origin data.
+            e.printStackTrace();
+            removeIv(out.buffer, start, offset, length);
+            return -1;
+        }
+    }
+
+    /**
+     * 回填信令头，取出缓冲区
+     */
+    private static ByteBuffer detach(ByteBufferOutputStream out, int packageSize, int cmd, int msgId,
+            int flag) {
+        ByteBuffer buffer = out.detach();
+        buffer.putInt(0, packageSize);
+        buffer.putInt(4, cmd);
+        buffer.putInt(8, msgId);
+        buffer.put(12, (byte) flag);
+        buffer.position(0);
+        buffer.limit(packageSize);
+        return buffer;
+    }
+
+    /**
+     * @return 压缩后的长度，压缩效果不好时返回-1（保留原始数据）
+     */
+    private static int compress(FrameEncoder encoder, int codec, int cmd, int offset, int length)
+            throws IOException {
+        ByteBufferOutputStream out = encoder.out;
+        ByteBuffer buffer = out.buffer;
+        byte[] array;
+        int arrayOffset;
+        if (buffer.hasArray())
+        {
+            array = buffer.array();
+            arrayOffset = buffer.arrayOffset() + offset;
+        }
+        else
+        {
+            // 直接内存需要先取出数据
+            array = ProtocolBufferPool.obtain(length);
+            arrayOffset = 0;
+            buffer.position(offset);
+            buffer.get(array, 0, length);
+        }
+
+        ByteBufferOutputStream compressOut = encoder.compressOut;
+        compressOut.buffer = ProtocolBufferPool.obtainBuffer(length, false);
+        try {
+            ProtocolCompressor.getCodec(codec).compress(array, arrayOffset, length, compressOut);
+            if (!buffer.hasArray()) ProtocolBufferPool.recycle(array);
+
+            ByteBuffer compressed = compressOut.buffer;
+            if (!ProtocolCompressor.record(cmd, length, compressed.position()))
+            {
+                return -1;
+            }
+
+            compressed.flip();
+            buffer.position(offset);
+            out.ensureCapacity(compressed.remaining());
+            out.buffer.put(compressed);
+            return out.buffer.position() - offset;
+        } finally {
+            compressOut.recycle();
+        }
+    }
+    
+    /**
+     * 加密失败时去掉预留的IV，数据体移到start处
+     */
+    private static void removeIv(ByteBuffer buffer, int start, int offset, int length) {
+        if (offset != start)
+        {
+            ByteBuffer body = buffer.duplicate();
+            body.limit(offset + length);
+            body.position(offset);
+            buffer.position(start);
+            buffer.put(body);
+        }
+    }
+
+    /**
+     * 原样转发收到的信令，不解密、不解压缩也不解析数据体，
+     * 中转服务器根据指令码和{@link ProtocolEntity#getRouteKey()}路由<p>
+     * 返回的缓冲区用法与{@link #encode(ProtocolEntity, boolean)}相同
+     */
+    public static ByteBuffer forward(ProtocolEntity entity, boolean direct) throws IOException {
+        if (entity.body == null)
+        {
+            throw new IOException("Entity body has been released.");
+        }
+
+        ByteBuffer buffer = ProtocolBufferPool.obtainBuffer(entity.packageSize, direct);
+        buffer.putInt(entity.packageSize)
+              .putInt(entity.cmd)
+              .putInt(entity.msgId)
+              .put((byte) entity.flag)
+              .put(entity.body, 0, entity.packageSize - HEADER_LENGTH);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 归还由{@link #encode(ProtocolEntity, boolean)}获取的缓冲区
+     */
+    public static void recycle(ByteBuffer buffer) {
+        ProtocolBufferPool.recycle(buffer);
+    }
+
     public static ProtocolEntity parse(InputStream is) throws IOException {
+        return parse(is, ProtocolDecoder.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param maxFrameSize 信令包最大长度（信令头不可信，超出时抛出异常而不是分配内存），
+     * 更大的数据使用{@link ProtocolChunkWriter}分片发送
+     */
+    public static ProtocolEntity parse(InputStream is, int maxFrameSize) throws IOException {
         // Header
         byte[] header = new byte[HEADER_LENGTH];
         if (!readStream(is, header))
@@ -76,7 +498,12 @@ public final class ProtocolWrapper {
         int msgId = bytesToInt(header, offset);
         offset += 4;    // 4位，信令id
         int flag = header[offset] & 0xff;
-        offset++;       // 1位，加密压缩标志，0x01压缩，0x02加密
+        offset++;       // 1位，加密压缩标志，0x01压缩，0x02加密，0x04类型编号，0x08/0x10加密方式，0x20LZ压缩，0x40紧凑编码，0x80路由扩展
+        
+        if (packageSize < offset || packageSize > maxFrameSize)
+        {
+            throw new IOException("Invalid package size:" + packageSize);
+        }
         
         // Body
         byte[] body = new byte[packageSize - offset];
@@ -114,49 +541,392 @@ public final class ProtocolWrapper {
     public static final class ProtocolEntity {
         
         /**
-         * 数据流传输扩展，使用{@link #writeString(String)}代替{@link #writeUTF(String)}
+         * 数据流传输扩展，使用{@link #writeString(String)}代替{@link #writeUTF(String)}<p>
+         * 紧凑编码（加密压缩标志0x40，双方协商后启用）时，writeString及writeCompact开头的方法
+         * 使用varint/zigzag编码，时间戳写入与上一个时间戳的差值，共享字符串在同一个信令中只写入一次；
+         * 未启用时与DataOutputStream格式相同
          */
         public static final class ProtocolDataOutputStream extends DataOutputStream {
 
-            public ProtocolDataOutputStream(OutputStream out) {
-                super(out);
+            private boolean isCompact;
+
+            private HashMap<String, Integer> strings;       // 共享字符串表
+            private long timestamp;                         // 上一个时间戳
+
+            private byte[] utf;
+
+            public ProtocolDataOutputStream(OutputStream out) {
+                super(out);
+            }
+
+            /**
+             * 设置是否使用紧凑编码（同时重置字符串表和时间戳，每个信令开始时调用）
+             */
+            void setCompact(boolean isCompact) {
+                this.isCompact = isCompact;
+                if (strings != null) strings.clear();
+                timestamp = 0;
+            }
+
+            public boolean isCompact() {
+                return isCompact;
+            }
+            
+            /**
+             * Writes a string to the underlying output stream, consider it is null value.
+             */
+            public void writeString(String str) throws IOException {
+                if (isCompact)
+                {
+                    // varint(长度 + 1)，0表示null
+                    if (str == null)
+                    {
+                        write(0);
+                    }
+                    else
+                    {
+                        writeCompactUTF(str, 1, 1);
+                    }
+                }
+                else if (str == null)
+                {
+                    writeBoolean(false);
+                }
+                else
+                {
+                    writeBoolean(true);
+                    writeUTF(str);
+                }
+            }
+
+            /**
+             * Writes a string which is likely to repeat in the same frame (e.g. account).
+             * In compact mode repeated values are written as a reference to the first one.
+             */
+            public void writeSharedString(String str) throws IOException {
+                if (!isCompact)
+                {
+                    writeString(str);
+                    return;
+                }
+
+                // 0表示null，奇数为已写入字符串的序号，偶数为新字符串的长度
+                if (str == null)
+                {
+                    write(0);
+                    return;
+                }
+
+                if (strings == null) strings = new HashMap<String, Integer>();
+                Integer index = strings.get(str);
+                if (index != null)
+                {
+                    writeVarInt(index << 1 | 1);
+                    return;
+                }
+
+                if (strings.size() < MAX_SHARED_STRINGS)
+                {
+                    strings.put(str, strings.size());
+                }
+
+                writeCompactUTF(str, 2, 2);
+            }
+
+            /**
+             * 写入varint(长度 * scale + bias)和字符串内容
+             */
+            private void writeCompactUTF(String str, int scale, int bias) throws IOException {
+                int utfLength = ProtocolSerializers.sizeOfUTF(str) - 2;
+                byte[] bs = utf;
+                if (bs == null || bs.length < utfLength)
+                {
+                    utf = bs = new byte[Math.max(utfLength, 64)];
+                }
+
+                ProtocolSerializers.encodeUTF(str, bs, 0);
+                writeVarInt(utfLength * scale + bias);
+                write(bs, 0, utfLength);
+            }
+
+            /**
+             * Writes an int, as a zigzag varint in compact mode.
+             */
+            public void writeCompactInt(int v) throws IOException {
+                if (isCompact)
+                {
+                    writeVarInt(v << 1 ^ v >> 31);
+                }
+                else
+                {
+                    writeInt(v);
+                }
+            }
+
+            /**
+             * Writes a long, as a zigzag varint in compact mode.
+             */
+            public void writeCompactLong(long v) throws IOException {
+                if (isCompact)
+                {
+                    writeVarLong(v << 1 ^ v >> 63);
+                }
+                else
+                {
+                    writeLong(v);
+                }
+            }
+
+            /**
+             * Writes a timestamp, as the zigzag delta from the previous timestamp
+             * of the same frame in compact mode.
+             */
+            public void writeTimestamp(long v) throws IOException {
+                if (isCompact)
+                {
+                    long delta = v - timestamp;
+                    timestamp = v;
+                    writeVarLong(delta << 1 ^ delta >> 63);
+                }
+                else
+                {
+                    writeLong(v);
+                }
+            }
+
+            /**
+             * Writes the length of an array, as a varint in compact mode.
+             */
+            public void writeCount(int count) throws IOException {
+                if (isCompact)
+                {
+                    writeVarInt(count);
+                }
+                else
+                {
+                    writeInt(count);
+                }
+            }
+
+            /**
+             * Writes an unsigned varint (7 bits per byte, 1-5 bytes).
+             */
+            public void writeVarInt(int v) throws IOException {
+                while ((v & ~0x7f) != 0)
+                {
+                    write((v & 0x7f) | 0x80);
+                    v >>>= 7;
+                }
+                
+                write(v);
+            }
+
+            /**
+             * Writes an unsigned varint (7 bits per byte, 1-10 bytes).
+             */
+            public void writeVarLong(long v) throws IOException {
+                while ((v & ~0x7fL) != 0)
+                {
+                    write((int) (v & 0x7f) | 0x80);
+                    v >>>= 7;
+                }
+
+                write((int) v);
+            }
+        }
+
+        /**
+         * 数据流传输扩展，使用{@link #readString()}代替{@link #readUTF()}<p>
+         * 紧凑编码的格式参见{@link ProtocolDataOutputStream}
+         */
+        public static final class ProtocolDataInputStream extends DataInputStream {
+
+            private boolean isCompact;
+
+            private ArrayList<String> strings;              // 共享字符串表
+            private long timestamp;                         // 上一个时间戳
+
+            private byte[] utf;
+
+            public ProtocolDataInputStream(InputStream in) {
+                super(in);
+            }
+
+            void setCompact(boolean isCompact) {
+                this.isCompact = isCompact;
+                if (strings != null) strings.clear();
+                timestamp = 0;
+            }
+
+            public boolean isCompact() {
+                return isCompact;
+            }
+            
+            /**
+             * Reads a string from the contained input stream, may be null value.
+             */
+            public String readString() throws IOException {
+                if (isCompact)
+                {
+                    int v = readVarInt();
+                    return v != 0 ? readCompactUTF(v - 1) : null;
+                }
+
+                if (readBoolean())
+                {
+                    return readUTF();
+                }
+                
+                return null;
+            }
+
+            /**
+             * Reads a string written by {@link ProtocolDataOutputStream#writeSharedString(String)}.
+             */
+            public String readSharedString() throws IOException {
+                if (!isCompact)
+                {
+                    return readString();
+                }
+
+                int v = readVarInt();
+                if (v == 0)
+                {
+                    return null;
+                }
+
+                if (strings == null) strings = new ArrayList<String>();
+                if ((v & 1) != 0)
+                {
+                    int index = v >>> 1;
+                    if (index >= strings.size())
+                    {
+                        throw new IOException("Invalid string reference:" + index);
+                    }
+
+                    return strings.get(index);
+                }
+
+                String str = readCompactUTF((v >>> 1) - 1);
+                if (strings.size() < MAX_SHARED_STRINGS)
+                {
+                    strings.add(str);
+                }
+
+                return str;
             }
-            
+
+            private String readCompactUTF(int utfLength) throws IOException {
+                if (utfLength < 0 || utfLength > 65535)
+                {
+                    throw new UTFDataFormatException("malformed input: string length " + utfLength);
+                }
+
+                byte[] bs = utf;
+                if (bs == null || bs.length < utfLength)
+                {
+                    utf = bs = new byte[Math.max(utfLength, 64)];
+                }
+
+                readFully(bs, 0, utfLength);
+                return ProtocolSerializers.decodeUTF(ByteBuffer.wrap(bs, 0, utfLength), utfLength);
+            }
+
             /**
-             * Writes a string to the underlying output stream, consider it is null value.
+             * Reads an int written by {@link ProtocolDataOutputStream#writeCompactInt(int)}.
              */
-            public void writeString(String str) throws IOException {
-                if (str == null)
+            public int readCompactInt() throws IOException {
+                if (isCompact)
                 {
-                    writeBoolean(false);
+                    int v = readVarInt();
+                    return v >>> 1 ^ -(v & 1);
                 }
-                else
+
+                return readInt();
+            }
+
+            /**
+             * Reads a long written by {@link ProtocolDataOutputStream#writeCompactLong(long)}.
+             */
+            public long readCompactLong() throws IOException {
+                if (isCompact)
                 {
-                    writeBoolean(true);
-                    writeUTF(str);
+                    long v = readVarLong();
+                    return v >>> 1 ^ -(v & 1);
                 }
+
+                return readLong();
             }
-        }
 
-        /**
-         * 数据流传输扩展，使用{@link #readString()}代替{@link #readUTF()}
-         */
-        public static final class ProtocolDataInputStream extends DataInputStream {
+            /**
+             * Reads a timestamp written by {@link ProtocolDataOutputStream#writeTimestamp(long)}.
+             */
+            public long readTimestamp() throws IOException {
+                if (isCompact)
+                {
+                    long v = readVarLong();
+                    return timestamp += v >>> 1 ^ -(v & 1);
+                }
 
-            public ProtocolDataInputStream(InputStream in) {
-                super(in);
+                return readLong();
             }
-            
+
             /**
-             * Reads a string from the contained input stream, may be null value.
+             * Reads the length of an array written by {@link ProtocolDataOutputStream#writeCount(int)}.
+             *
+             * @param minSize 每个元素序列化后的最小长度（非紧凑编码），按剩余数据检查长度，避免按伪造的长度分配数组
              */
-            public String readString() throws IOException {
-                if (readBoolean())
+            public int readCount(int minSize) throws IOException {
+                int count = isCompact ? readVarInt() : readInt();
+                if (isCompact && count < 0)
                 {
-                    return readUTF();
+                    throw new IOException("Invalid array length:" + count);
+                }
+
+                // 紧凑编码的每个元素至少1字节
+                int size = isCompact ? Math.min(minSize, 1) : minSize;
+                if (count > 0 && size > 0 && count > available() / size)
+                {
+                    throw new IOException("Invalid array length:" + count);
+                }
+
+                return count;
+            }
+
+            /**
+             * Reads an unsigned varint written by {@link ProtocolDataOutputStream#writeVarInt(int)}.
+             */
+            public int readVarInt() throws IOException {
+                int v = 0;
+                for (int shift = 0; shift < 35; shift += 7)
+                {
+                    int b = readUnsignedByte();
+                    v |= (b & 0x7f) << shift;
+                    if ((b & 0x80) == 0)
+                    {
+                        return v;
+                    }
                 }
                 
-                return null;
+                throw new IOException("Malformed varint");
+            }
+
+            /**
+             * Reads an unsigned varint written by {@link ProtocolDataOutputStream#writeVarLong(long)}.
+             */
+            public long readVarLong() throws IOException {
+                long v = 0;
+                for (int shift = 0; shift < 70; shift += 7)
+                {
+                    int b = readUnsignedByte();
+                    v |= (long) (b & 0x7f) << shift;
+                    if ((b & 0x80) == 0)
+                    {
+                        return v;
+                    }
+                }
+
+                throw new IOException("Malformed varint");
             }
         }
 
@@ -182,14 +952,18 @@ public final class ProtocolWrapper {
         // 加密压缩标志
         int flag;
         
-        // 数据体
+        // 数据体（长度为packageSize - HEADER_LENGTH，来自缓存池时数组可能更长）
         byte[] body;
+        boolean isPooled;
         ProtocolData data;
-        
+
+        // 路由标识
+        String routeKey;
+
         ProtocolEntity() {}
         
         public static ProtocolEntity newInstance(int msgId, ProtocolData data) {
-            return newInstance(msgId, data.getClass().getName().hashCode(), data);
+            return newInstance(msgId, ProtocolRegistry.getCmd(data), data);
         }
         
         public static ProtocolEntity newInstance(int msgId, int cmd, ProtocolData data) {
@@ -218,31 +992,61 @@ public final class ProtocolWrapper {
         }
         
         public void generateBody() throws Exception {
+            generateBody(null);
+        }
+
+        /**
+         * @param negotiation 连接的协商结果，参见{@link ProtocolRegistry#acceptTypeTable(ProtocolRegistry.TypeTable)}
+         */
+        public void generateBody(Negotiation negotiation) throws Exception {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             ProtocolDataOutputStream dos = new ProtocolDataOutputStream(baos);
             try {
-                dos.writeUTF(data.getClass().getName());
+                flag = writeType(dos, 0, negotiation);
+                if (isCompactEncoding(negotiation))
+                {
+                    dos.setCompact(true);
+                    flag |= 0x40;
+                }
+
                 data.write(dos);
-                
+
                 byte[] body = baos.toByteArray();
-                if (body.length > ProtocolUtil.DEFAULT_COMPRESS_SIZE)
+                if (ProtocolCompressor.shouldCompress(cmd, body.length))
                 {
                     // 压缩
-                    body = ProtocolUtil.gzip(body);
-                    flag |= 0x01;
+                    int codec = protocolCompressCodec;
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length);
+                    ProtocolCompressor.getCodec(codec).compress(body, 0, body.length, compressed);
+                    if (ProtocolCompressor.record(cmd, body.length, compressed.size()))
+                    {
+                        body = compressed.toByteArray();
+                        flag |= codec;
+                    }
                 }
 
                 if (protocolEncryptKey != null)
                 {
                     // 加密
                     try {
-                        body = ProtocolUtil.encrypt(protocolEncryptKey, body);
-                        flag |= 0x02;
+                        int mode = protocolEncryptMode;
+                        body = ProtocolUtil.encrypt(mode, protocolEncryptKey, body);
+                        flag |= mode;
                     } catch (Exception e) {
                         // Keep origin data.
                         e.printStackTrace();
                     }
                 }
+
+                if (routeKey != null)
+                {
+                    // 路由扩展
+                    ByteBuffer buffer = ByteBuffer.allocate(
+                            ProtocolSerializers.sizeOfUTF(routeKey) + body.length);
+                    ProtocolSerializers.putUTF(buffer, routeKey);
+                    body = buffer.put(body).array();
+                    flag |= 0x80;
+                }
                 
                 packageSize = (this.body = body).length + HEADER_LENGTH;
             } finally {
@@ -250,28 +1054,184 @@ public final class ProtocolWrapper {
             }
         }
 
+        /**
+         * 写入数据类型（协商过的类型使用编号，否则使用类名）
+         * 
+         * @return 加密压缩标志
+         */
+        int writeType(ProtocolDataOutputStream dos, int flag, Negotiation negotiation) throws IOException {
+            int typeId = ProtocolRegistry.getWireTypeId(data, negotiation);
+            if (typeId != 0)
+            {
+                dos.writeVarInt(typeId);
+                return flag | 0x04;
+            }
+            
+            dos.writeUTF(data.getClass().getName());
+            return flag;
+        }
+
         public void parseBody() throws Exception {
+            ByteBuffer buffer = decodeBody();
+            try {
+                if ((flag & 0x04) != 0)
+                {
+                    // 类型编号
+                    data = ProtocolRegistry.newInstance(ProtocolSerializers.getVarInt(buffer));
+                }
+                else
+                {
+                    data = ProtocolRegistry.newInstance(ProtocolSerializers.getUTF(buffer));
+                }
+                
+                ProtocolSerializer<ProtocolData> serializer;
+                if ((flag & 0x40) == 0
+                && (serializer = ProtocolSerializers.get(data.getClass())) != null)
+                {
+                    serializer.read(data, buffer);
+                    return;
+                }
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+            
+            ProtocolDataInputStream dis = newInputStream(buffer);
+            try {
+                data.read(dis);
+            } finally {
+                dis.close();
+            }
+        }
+
+        /**
+         * 打开数据体由调用者按需读取，不创建数据对象（用于数据量很大的信令，如离线消息）<p>
+         * 读取完毕前不要调用{@link #release()}
+         *
+         * @param cls 数据类型，与信令中的类型不一致时抛出异常
+         * @return 已跳过数据类型的输入流
+         */
+        public ProtocolDataInputStream openBody(Class<? extends ProtocolData> cls) throws Exception {
+            ByteBuffer buffer = decodeBody();
+            String className;
+            try {
+                if ((flag & 0x04) != 0)
+                {
+                    // 类型编号
+                    className = ProtocolRegistry.getClassName(ProtocolSerializers.getVarInt(buffer));
+                }
+                else
+                {
+                    className = ProtocolSerializers.getUTF(buffer);
+                }
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+
+            if (!cls.getName().equals(className))
+            {
+                throw new IOException("Unexpected data type:" + className);
+            }
+
+            return newInputStream(buffer);
+        }
+
+        /**
+         * 解密并解压缩数据体
+         */
+        ByteBuffer decodeBody() throws Exception {
             byte[] body = this.body;
-            if ((flag & 0x02) != 0)
+            // 跳过路由扩展
+            int offset = routeLength();
+            int length = packageSize - HEADER_LENGTH - offset;
+            int mode = flag & ProtocolUtil.CIPHER_MASK;
+            if (mode != 0)
             {
                 // 解密
-                body = ProtocolUtil.decrypt(protocolEncryptKey, body);
+                body = ProtocolUtil.decrypt(mode, protocolEncryptKey, body, offset, length);
+                offset = 0;
+                length = body.length;
             }
             
-            if ((flag & 0x01) != 0)
+            int codec = flag & ProtocolCompressor.CODEC_MASK;
+            if (codec != 0)
             {
                 // 解压缩
-                body = ProtocolUtil.ungzip(body);
+                body = ProtocolCompressor.getCodec(codec).decompress(body, offset, length);
+                offset = 0;
+                length = body.length;
             }
             
-            ProtocolDataInputStream dis = new ProtocolDataInputStream(new ByteArrayInputStream(body));
-            try {
-                Class<? extends ProtocolData> cls = Class.forName(dis.readUTF())
-                        .asSubclass(ProtocolData.class);
-                (data = cls.newInstance()).read(dis);
-            } finally {
-                dis.close();
+            return ByteBuffer.wrap(body, offset, length);
+        }
+
+        /**
+         * 路由扩展的长度（2字节长度 + 路由标识）
+         */
+        private int routeLength() throws IOException {
+            if ((flag & 0x80) == 0)
+            {
+                return 0;
+            }
+
+            int length = packageSize - HEADER_LENGTH;
+            if (length < 2)
+            {
+                throw new IOException("Invalid route length");
+            }
+
+            int routeLength = 2 + ((body[0] & 0xff) << 8 | body[1] & 0xff);
+            if (routeLength > length)
+            {
+                throw new IOException("Invalid route length:" + routeLength);
+            }
+
+            return routeLength;
+        }
+
+        /**
+         * 设置路由标识（如接收方账号），以明文写在数据体之前（不加密也不压缩），
+         * 中转服务器不需要解析数据体即可路由信令
+         */
+        public ProtocolEntity setRouteKey(String routeKey) {
+            this.routeKey = routeKey;
+            return this;
+        }
+
+        /**
+         * 获取路由标识（只读取信令头之后的路由扩展，不解析数据体）
+         *
+         * @return 没有路由扩展时返回null
+         */
+        public String getRouteKey() throws IOException {
+            if (routeKey == null && (flag & 0x80) != 0 && body != null)
+            {
+                routeKey = ProtocolSerializers.getUTF(ByteBuffer.wrap(body, 0, routeLength()));
+            }
+
+            return routeKey;
+        }
+
+        /**
+         * 从缓冲区当前位置开始读取数据
+         */
+        private ProtocolDataInputStream newInputStream(ByteBuffer buffer) {
+            ProtocolDataInputStream dis = new ProtocolDataInputStream(
+                    new ByteArrayInputStream(buffer.array(), buffer.position(), buffer.remaining()));
+            dis.setCompact((flag & 0x40) != 0);
+            return dis;
+        }
+        
+        /**
+         * 数据体不再使用（已调用{@link #parseBody()}或丢弃），归还至缓存池
+         */
+        public void release() {
+            if (isPooled)
+            {
+                isPooled = false;
+                ProtocolBufferPool.recycle(body);
             }
+            
+            body = null;
         }
         
         @Override
@@ -319,9 +1279,13 @@ final class ProtocolUtil {
      * 解压缩数据
      */
     public static byte[] ungzip(byte[] content) throws IOException {
+        return ungzip(content, content.length);
+    }
+
+    public static byte[] ungzip(byte[] content, int length) throws IOException {
         GZIPInputStream zis = null;
         try {
-            zis = new GZIPInputStream(new ByteArrayInputStream(content));
+            zis = new GZIPInputStream(new ByteArrayInputStream(content, 0, length));
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             byte[] buffer = new byte[DEFAULT_COMPRESS_SIZE * 2];
             int n;
@@ -339,18 +1303,266 @@ final class ProtocolUtil {
         }
     }
 
+    static final int CIPHER_AES_ECB = 0x02;
+    static final int CIPHER_AES_GCM = 0x08;
+    static final int CIPHER_AES_CTR = 0x10;
+    static final int CIPHER_MASK = CIPHER_AES_ECB | CIPHER_AES_GCM | CIPHER_AES_CTR;
+
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 16;
+    private static final int CTR_IV_LENGTH = 16;
+
+    /**
+     * 缓存的加解密器（避免每个信令包都创建Cipher和扩展密钥）
+     */
+    private static final class CachedCipher {
+
+        Cipher cipher;
+        byte[] key;
+        SecretKeySpec keySpec;
+        boolean isInitialized;                  // ECB模式初始化后可重复使用
+    }
+
+    private static final class CipherCache {
+
+        final CachedCipher[] ciphers = new CachedCipher[6];     // 3种加密方式 × 加密/解密
+        final SecureRandom random = new SecureRandom();
+        final byte[] iv = new byte[CTR_IV_LENGTH];
+    }
+
+    private static final ThreadLocal<CipherCache> cipherCache = new ThreadLocal<CipherCache>() {
+
+        @Override
+        protected CipherCache initialValue() {
+            return new CipherCache();
+        }
+    };
+
+    static int ivLength(int mode) {
+        switch (mode) {
+            case CIPHER_AES_GCM:
+                return GCM_IV_LENGTH;
+            case CIPHER_AES_CTR:
+                return CTR_IV_LENGTH;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 加密后密文最多增加的长度（填充或认证标签）
+     */
+    private static int maxExpansion(int mode) {
+        switch (mode) {
+            case CIPHER_AES_GCM:
+                return GCM_TAG_LENGTH;
+            case CIPHER_AES_CTR:
+                return 0;
+            default:
+                return 16;
+        }
+    }
+
+    private static CachedCipher getCipher(int mode, int opmode, byte[] key)
+            throws GeneralSecurityException {
+        int index;
+        String transformation;
+        switch (mode) {
+            case CIPHER_AES_ECB:
+                index = 0;
+                transformation = "AES/ECB/PKCS5Padding";
+                break;
+            case CIPHER_AES_GCM:
+                index = 2;
+                transformation = "AES/GCM/NoPadding";
+                break;
+            case CIPHER_AES_CTR:
+                index = 4;
+                transformation = "AES/CTR/NoPadding";
+                break;
+            default:
+                throw new GeneralSecurityException("Unknown cipher mode:" + mode);
+        }
+
+        if (opmode == Cipher.DECRYPT_MODE) index++;
+        CachedCipher[] ciphers = cipherCache.get().ciphers;
+        CachedCipher c = ciphers[index];
+        if (c == null)
+        {
+            c = ciphers[index] = new CachedCipher();
+            c.cipher = Cipher.getInstance(transformation);
+        }
+
+        if (c.key == null || !Arrays.equals(c.key, key))
+        {
+            c.key = key.clone();
+            c.keySpec = new SecretKeySpec(c.key, "AES");
+            c.isInitialized = false;
+        }
+
+        return c;
+    }
+
+    /**
+     * 初始化加解密器，ECB模式只在第一次或出错后初始化
+     *
+     * @param iv 为null时表示ECB模式
+     */
+    private static Cipher init(CachedCipher c, int mode, int opmode, byte[] iv)
+            throws GeneralSecurityException {
+        return init(c, mode, opmode, iv, 0);
+    }
+
+    private static Cipher init(CachedCipher c, int mode, int opmode, byte[] iv, int ivOffset)
+            throws GeneralSecurityException {
+        if (iv == null)
+        {
+            if (!c.isInitialized)
+            {
+                c.cipher.init(opmode, c.keySpec);
+                c.isInitialized = true;
+            }
+        }
+        else if (mode == CIPHER_AES_GCM)
+        {
+            c.cipher.init(opmode, c.keySpec,
+                    new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv, ivOffset, GCM_IV_LENGTH));
+        }
+        else
+        {
+            c.cipher.init(opmode, c.keySpec, new IvParameterSpec(iv, ivOffset, CTR_IV_LENGTH));
+        }
+
+        return c.cipher;
+    }
+
+    /**
+     * 生成随机IV（每个线程复用同一数组）
+     */
+    private static byte[] nextIv(int ivLength) {
+        if (ivLength == 0)
+        {
+            return null;
+        }
+
+        CipherCache cache = cipherCache.get();
+        cache.random.nextBytes(cache.iv);
+        return cache.iv;
+    }
+
     public static byte[] encrypt(byte[] key, byte[] data) throws Exception {
-        return crypto(key, data, Cipher.ENCRYPT_MODE);
+        return encrypt(CIPHER_AES_ECB, key, data);
+    }
+
+    /**
+     * 加密数据
+     *
+     * @return IV + 密文
+     */
+    public static byte[] encrypt(int mode, byte[] key, byte[] data) throws Exception {
+        CachedCipher c = getCipher(mode, Cipher.ENCRYPT_MODE, key);
+        int ivLength = ivLength(mode);
+        byte[] iv = nextIv(ivLength);
+        try {
+            Cipher cipher = init(c, mode, Cipher.ENCRYPT_MODE, iv);
+            byte[] output = new byte[ivLength + cipher.getOutputSize(data.length)];
+            if (iv != null) System.arraycopy(iv, 0, output, 0, ivLength);
+            int n = ivLength + cipher.doFinal(data, 0, data.length, output, ivLength);
+            return n == output.length ? output : Arrays.copyOf(output, n);
+        } catch (Exception e) {
+            c.isInitialized = false;
+            throw e;
+        }
+    }
+
+    /**
+     * 加密数据（输入与输出可以是同一块内存）
+     *
+     * @return 输出数据长度
+     */
+    public static int encrypt(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+        CachedCipher c = getCipher(CIPHER_AES_ECB, Cipher.ENCRYPT_MODE, key);
+        try {
+            return init(c, CIPHER_AES_ECB, Cipher.ENCRYPT_MODE, null).doFinal(input, output);
+        } catch (Exception e) {
+            c.isInitialized = false;
+            throw e;
+        }
+    }
+
+    /**
+     * 原地加密，IV写入offset处，明文紧跟在预留的IV之后，
+     * 完成后缓冲区位置指向密文末尾
+     *
+     * @param length 明文长度
+     * @return IV + 密文的长度
+     */
+    static int encrypt(int mode, byte[] key, ByteBufferOutputStream out, int offset, int length)
+            throws Exception {
+        CachedCipher c = getCipher(mode, Cipher.ENCRYPT_MODE, key);
+        int ivLength = ivLength(mode);
+        int start = offset + ivLength;
+        out.buffer.position(start + length);
+        out.ensureCapacity(maxExpansion(mode));
+        ByteBuffer buffer = out.buffer;
+
+        byte[] iv = nextIv(ivLength);
+        if (iv != null)
+        {
+            buffer.position(offset);
+            buffer.put(iv, 0, ivLength);
+        }
+
+        ByteBuffer input = buffer.duplicate();
+        input.limit(start + length);
+        input.position(start);
+        ByteBuffer output = buffer.duplicate();
+        output.limit(output.capacity());
+        output.position(start);
+        try {
+            length = ivLength + init(c, mode, Cipher.ENCRYPT_MODE, iv).doFinal(input, output);
+        } catch (Exception e) {
+            c.isInitialized = false;
+            throw e;
+        }
+
+        buffer.position(offset + length);
+        return length;
     }
 
     public static byte[] decrypt(byte[] key, byte[] data) throws Exception {
-        return crypto(key, data, Cipher.DECRYPT_MODE);
+        return decrypt(CIPHER_AES_ECB, key, data, data.length);
     }
-    
-    private static byte[] crypto(byte[] key, byte[] data, int cipherMode) throws Exception {
-        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-        cipher.init(cipherMode, new SecretKeySpec(key, "AES"));
-        return cipher.doFinal(data);
+
+    public static byte[] decrypt(byte[] key, byte[] data, int length) throws Exception {
+        return decrypt(CIPHER_AES_ECB, key, data, length);
+    }
+
+    /**
+     * 解密数据
+     *
+     * @param data IV + 密文
+     */
+    public static byte[] decrypt(int mode, byte[] key, byte[] data, int length) throws Exception {
+        return decrypt(mode, key, data, 0, length);
+    }
+
+    static byte[] decrypt(int mode, byte[] key, byte[] data, int offset, int length) throws Exception {
+        CachedCipher c = getCipher(mode, Cipher.DECRYPT_MODE, key);
+        int ivLength = ivLength(mode);
+        if (length < ivLength)
+        {
+            throw new GeneralSecurityException("Invalid cipher text length:" + length);
+        }
+
+        try {
+            // IV位于密文之前
+            return init(c, mode, Cipher.DECRYPT_MODE, ivLength > 0 ? data : null, offset)
+                    .doFinal(data, offset + ivLength, length - ivLength);
+        } catch (Exception e) {
+            c.isInitialized = false;
+            throw e;
+        }
     }
 
     public static void intToBytes(int i, byte[] bs, int offset) {